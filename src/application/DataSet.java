@@ -1,10 +1,16 @@
 package application;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Set;
 
 import geography.GeographicPoint;
+import geography.RoadSegment;
+import geography.SpatialIndex;
+import roadgraph.HubLabels;
+import roadgraph.LandmarkHeuristic;
 import util.GraphLoader;
 
 /**
@@ -15,10 +21,16 @@ import util.GraphLoader;
  *
  */
 public class DataSet {
+	private static final int NUM_LANDMARKS = 8;
+
 	String filePath;
 	roadgraph.MapGraph graph;
 	Set<GeographicPoint> intersections;
     private HashMap<geography.GeographicPoint,HashSet<geography.RoadSegment>>  roads;
+    private SpatialIndex roadIndex;
+    private HubLabels hubLabels;
+    // shortest segment between each pair of intersections it joins
+    private HashMap<GeographicPoint,HashMap<GeographicPoint,RoadSegment>> segmentIndex;
 	boolean currentlyDisplayed;
 
 	public DataSet (String path) {
@@ -32,7 +44,11 @@ public class DataSet {
     	this.graph = graph;
     }
 
-    public void setRoads(HashMap<geography.GeographicPoint,HashSet<geography.RoadSegment>>  roads) { this.roads = roads; }
+    public void setRoads(HashMap<geography.GeographicPoint,HashSet<geography.RoadSegment>>  roads) { 
+    	this.roads = roads; 
+    	this.roadIndex = null;
+    	this.segmentIndex = null;
+    }
     public roadgraph.MapGraph getGraph(){ return graph; }
     
     /** Return the intersections in this graph.
@@ -60,6 +76,75 @@ public class DataSet {
         intersections = new HashSet<GeographicPoint>();
         //TODO: change to use intersections for points in graph.
     	GraphLoader.loadRoadMap(filePath, graph, roads, intersections);
+    	roadIndex = null;
+    	hubLabels = null;
+    	segmentIndex = buildSegmentIndex(roads);
+    	// A* uses landmark bounds, cached in a file next to the map
+    	graph.setHeuristic(LandmarkHeuristic.forMap(graph.getCompactGraph(),
+    			filePath, NUM_LANDMARKS));
+    }
+
+    /** Get the hub labels of the graph, for fast distance queries. They
+     * are loaded from a file next to the map, or built and saved there on
+     * first use.
+     * @return The hub labels of the graph
+     */
+    public HubLabels getHubLabels() {
+    	if (hubLabels == null) {
+    		hubLabels = HubLabels.forMap(graph.getCompactGraph(), filePath);
+    	}
+    	return hubLabels;
+    }
+
+    /** Get the road segment that joins two intersections.
+     * @param from One end of the segment
+     * @param to The other end of the segment
+     * @return The shortest segment between the two, or null if none
+     */
+    public RoadSegment getSegment(GeographicPoint from, GeographicPoint to) {
+    	if (segmentIndex == null) {
+    		segmentIndex = buildSegmentIndex(roads);
+    	}
+    	HashMap<GeographicPoint,RoadSegment> fromSegments = segmentIndex.get(from);
+    	return fromSegments == null ? null : fromSegments.get(to);
+    }
+    
+    private static HashMap<GeographicPoint,HashMap<GeographicPoint,RoadSegment>>
+    buildSegmentIndex(HashMap<GeographicPoint,HashSet<RoadSegment>> roads) {
+    	HashMap<GeographicPoint,HashMap<GeographicPoint,RoadSegment>> index = 
+    			new HashMap<GeographicPoint,HashMap<GeographicPoint,RoadSegment>>();
+    	for (GeographicPoint from : roads.keySet()) {
+    		HashMap<GeographicPoint,RoadSegment> fromSegments = 
+    				new HashMap<GeographicPoint,RoadSegment>();
+    		for (RoadSegment seg : roads.get(from)) {
+    			GeographicPoint to = seg.getOtherPoint(from);
+    			RoadSegment shortest = fromSegments.get(to);
+    			if (shortest == null || seg.getLength() < shortest.getLength()) {
+    				fromSegments.put(to, seg);
+    			}
+    		}
+    		index.put(from, fromSegments);
+    	}
+    	return index;
+    }
+    
+    /** Find the closest point on any road to a location.
+     * @param lat The latitude of the location
+     * @param lon The longitude of the location
+     * @return The point and the road segment it is on, or null if there
+     *   are no roads
+     */
+    public SpatialIndex.Snap snapToRoad(double lat, double lon) {
+    	if (roadIndex == null) {
+    		// every segment is filed under both of its end points
+    		Set<RoadSegment> segments = 
+    				Collections.newSetFromMap(new IdentityHashMap<RoadSegment,Boolean>());
+    		for (HashSet<RoadSegment> segs : roads.values()) {
+    			segments.addAll(segs);
+    		}
+    		roadIndex = new SpatialIndex(getIntersections(), segments);
+    	}
+    	return roadIndex.snap(lat, lon);
     }
 
 	public String getFilePath() {
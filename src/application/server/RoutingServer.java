@@ -0,0 +1,513 @@
+package application.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import application.DataSet;
+import geography.GeographicPoint;
+import roadgraph.FrozenMapGraph;
+import roadgraph.MapGraph;
+import roadgraph.RoutingGraph;
+import roadgraph.SpeedWeighting;
+import roadgraph.Weighting;
+import util.GraphLoader;
+
+/**
+ * A headless routing backend: loads map data sets and answers routing
+ * queries over HTTP with JSON, without the JavaFX front end.
+ *
+ * Endpoints (map selects a data set by file name without .map and defaults
+ * to the first one loaded; points are "lat,lon"):
+ *
+ *   GET /route?map=&from=&to=&algorithm=&profile=   path between the
+ *       intersections nearest to two points; algorithm is dijkstra, astar
+ *       (default), bidijkstra, biastar, ch or bfs; profile is distance
+ *       (default), or car, truck or bike for the fastest route, whose
+ *       travel time in minutes is returned as cost
+ *   GET /nearest?map=&lat=&lon=&k=         the k nearest intersections
+ *   GET /matrix?map=&sources=&targets=     road distances between lists of
+ *       points separated by ';'; POST takes the same fields as a JSON object
+ *       with arrays of [lat, lon] pairs
+ *
+ * Requests run on a fixed pool of worker threads against frozen views of
+ * the graphs, so they never block each other. Responses carry their
+ * length, which lets the JDK server keep HTTP/1.1 connections alive.
+ *
+ * @author imdaz
+ */
+public class RoutingServer {
+
+	private static final int DEFAULT_PORT = 8080;
+	private static final String MAP_DIRECTORY = "data/maps/";
+
+	private final Map<String, Graph> graphs;
+	private final HttpServer server;
+	private final ExecutorService workers;
+
+	// A loaded data set and the structures queries run on
+	private static class Graph {
+		final String name;
+		final MapGraph graph;
+		final FrozenMapGraph frozen;
+		final Map<String, FrozenMapGraph> profiles;
+
+		Graph(String name, DataSet dataSet) {
+			this.name = name;
+			this.graph = dataSet.getGraph();
+			this.frozen = graph.freeze();
+			this.profiles = new HashMap<String, FrozenMapGraph>();
+			profiles.put(Weighting.DISTANCE.getName(), frozen);
+			for (Weighting weighting : new Weighting[] { SpeedWeighting.CAR,
+					SpeedWeighting.TRUCK, SpeedWeighting.BIKE }) {
+				profiles.put(weighting.getName(), graph.freeze(weighting));
+			}
+		}
+	}
+
+	// A request that cannot be answered, with its HTTP status
+	private static class HttpError extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		HttpError(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	private interface Endpoint {
+		JsonObject handle(Graph graph, Map<String, String> params, JsonObject body);
+	}
+
+	/**
+	 * Create a server for data sets that have been initialized.
+	 * @param dataSets The data sets by name
+	 * @param port The port to listen on
+	 * @param threads The number of worker threads
+	 * @throws IOException If the port cannot be bound
+	 */
+	public RoutingServer(Map<String, DataSet> dataSets, int port, int threads)
+			throws IOException {
+		if (dataSets.isEmpty() || threads < 1) {
+			throw new IllegalArgumentException();
+		}
+		graphs = new LinkedHashMap<String, Graph>();
+		for (Map.Entry<String, DataSet> entry : dataSets.entrySet()) {
+			graphs.put(entry.getKey(), new Graph(entry.getKey(), entry.getValue()));
+		}
+
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = runnable -> {
+			Thread thread = new Thread(runnable, "http-worker-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		workers = Executors.newFixedThreadPool(threads, factory);
+		server.setExecutor(workers);
+		server.createContext("/route", exchange -> serve(exchange, this::route));
+		server.createContext("/nearest", exchange -> serve(exchange, this::nearest));
+		server.createContext("/matrix", exchange -> serve(exchange, this::matrix));
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stop the server, giving open exchanges up to a second to finish.
+	 */
+	public void stop() {
+		server.stop(1);
+		workers.shutdown();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private JsonObject route(Graph graph, Map<String, String> params, JsonObject body) {
+		GeographicPoint from = nearest(graph, parsePoint(required(params, "from")));
+		GeographicPoint to = nearest(graph, parsePoint(required(params, "to")));
+		String algorithm = params.getOrDefault("algorithm", "astar");
+		String profile = params.getOrDefault("profile", Weighting.DISTANCE.getName());
+		FrozenMapGraph frozen = graph.profiles.get(profile);
+		if (frozen == null) {
+			throw new HttpError(400, "Unknown profile: " + profile);
+		}
+
+		List<GeographicPoint> path;
+		switch (algorithm) {
+			case "dijkstra":
+				path = frozen.dijkstra(from, to);
+				break;
+			case "astar":
+				path = frozen.aStarSearch(from, to);
+				break;
+			case "bidijkstra":
+				path = frozen.bidirectionalDijkstra(from, to);
+				break;
+			case "biastar":
+				path = frozen.bidirectionalAStarSearch(from, to);
+				break;
+			case "ch":
+				if (frozen != graph.frozen) {
+					throw new HttpError(400, "ch supports only the distance profile");
+				}
+				path = graph.graph.getContractionHierarchy().route(from, to);
+				break;
+			case "bfs":
+				path = frozen.bfs(from, to);
+				break;
+			default:
+				throw new HttpError(400, "Unknown algorithm: " + algorithm);
+		}
+		if (path == null) {
+			throw new HttpError(404, "No path found");
+		}
+
+		JsonArrayBuilder points = Json.createArrayBuilder();
+		for (GeographicPoint point : path) {
+			points.add(toJson(point));
+		}
+		JsonObjectBuilder result = Json.createObjectBuilder()
+				.add("map", graph.name)
+				.add("algorithm", algorithm)
+				.add("profile", profile)
+				.add("start", toJson(from))
+				.add("goal", toJson(to))
+				.add("distance", pathLength(graph.frozen.getGraph(), path));
+		if (frozen != graph.frozen) {
+			result.add("cost", pathLength(frozen.getGraph(), path));
+		}
+		return result.add("path", points).build();
+	}
+
+	private JsonObject nearest(Graph graph, Map<String, String> params, JsonObject body) {
+		double lat = parseDouble(required(params, "lat"));
+		double lon = parseDouble(required(params, "lon"));
+		int k = params.containsKey("k") ? parseInt(params.get("k")) : 1;
+		if (k < 1) {
+			throw new HttpError(400, "k must be positive");
+		}
+
+		GeographicPoint query = new GeographicPoint(lat, lon);
+		JsonArrayBuilder vertices = Json.createArrayBuilder();
+		for (GeographicPoint point : graph.graph.kNearest(lat, lon, k)) {
+			vertices.add(Json.createObjectBuilder()
+					.add("lat", point.getX())
+					.add("lon", point.getY())
+					.add("distance", query.distance(point)));
+		}
+		return Json.createObjectBuilder()
+				.add("map", graph.name)
+				.add("vertices", vertices)
+				.build();
+	}
+
+	private JsonObject matrix(Graph graph, Map<String, String> params, JsonObject body) {
+		List<GeographicPoint> sources;
+		List<GeographicPoint> targets;
+		if (body != null) {
+			sources = parsePoints(body, "sources");
+			targets = parsePoints(body, "targets");
+		}
+		else {
+			sources = parsePoints(required(params, "sources"));
+			targets = parsePoints(required(params, "targets"));
+		}
+		for (int i = 0; i < sources.size(); i++) {
+			sources.set(i, nearest(graph, sources.get(i)));
+		}
+		for (int j = 0; j < targets.size(); j++) {
+			targets.set(j, nearest(graph, targets.get(j)));
+		}
+
+		double[][] distances = graph.frozen.distanceMatrix(sources, targets);
+		JsonArrayBuilder rows = Json.createArrayBuilder();
+		for (double[] row : distances) {
+			JsonArrayBuilder cells = Json.createArrayBuilder();
+			for (double d : row) {
+				// JSON has no infinity; unreachable pairs are null
+				if (d == Double.POSITIVE_INFINITY) {
+					cells.addNull();
+				}
+				else {
+					cells.add(d);
+				}
+			}
+			rows.add(cells);
+		}
+		return Json.createObjectBuilder()
+				.add("map", graph.name)
+				.add("distances", rows)
+				.build();
+	}
+
+	// Run an endpoint and write its result or error as JSON
+	private void serve(HttpExchange exchange, Endpoint endpoint) throws IOException {
+		int status = 200;
+		JsonObject response;
+		try {
+			String method = exchange.getRequestMethod();
+			JsonObject body = null;
+			if ("POST".equals(method)) {
+				body = readBody(exchange.getRequestBody());
+			}
+			else if (!"GET".equals(method)) {
+				throw new HttpError(405, "Method not allowed: " + method);
+			}
+			Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+			response = endpoint.handle(selectGraph(params), params, body);
+		}
+		catch (HttpError e) {
+			status = e.status;
+			response = error(e.getMessage());
+		}
+		catch (RuntimeException e) {
+			status = 500;
+			response = error("Internal error: " + e);
+		}
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (JsonWriter writer = Json.createWriter(buffer)) {
+			writer.writeObject(response);
+		}
+		byte[] bytes = buffer.toByteArray();
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private Graph selectGraph(Map<String, String> params) {
+		String name = params.get("map");
+		if (name == null) {
+			return graphs.values().iterator().next();
+		}
+		Graph graph = graphs.get(name);
+		if (graph == null) {
+			throw new HttpError(404, "Unknown map: " + name);
+		}
+		return graph;
+	}
+
+	private static JsonObject readBody(InputStream in) {
+		try (JsonReader reader = Json.createReader(in)) {
+			return reader.readObject();
+		}
+		catch (JsonException | IllegalStateException e) {
+			throw new HttpError(400, "Body must be a JSON object");
+		}
+	}
+
+	private static JsonObject error(String message) {
+		return Json.createObjectBuilder().add("error", message).build();
+	}
+
+	private static JsonObject toJson(GeographicPoint point) {
+		return Json.createObjectBuilder()
+				.add("lat", point.getX())
+				.add("lon", point.getY())
+				.build();
+	}
+
+	// Snap a point to the closest intersection, as clicked points rarely
+	// hit one exactly
+	private static GeographicPoint nearest(Graph graph, GeographicPoint point) {
+		GeographicPoint vertex = graph.graph.nearestVertex(point.getX(), point.getY());
+		if (vertex == null) {
+			throw new HttpError(404, "Map has no intersections");
+		}
+		return vertex;
+	}
+
+	// Sum of the shortest edge between each consecutive pair on a path
+	private static double pathLength(RoutingGraph graph, List<GeographicPoint> path) {
+		double length = 0;
+		for (int i = 0; i + 1 < path.size(); i++) {
+			int u = graph.indexOf(path.get(i));
+			int v = graph.indexOf(path.get(i + 1));
+			double best = Double.POSITIVE_INFINITY;
+			for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+				if (graph.getTarget(e) == v) {
+					best = Math.min(best, graph.getLength(e));
+				}
+			}
+			length += best;
+		}
+		return length;
+	}
+
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null || query.isEmpty()) {
+			return params;
+		}
+		try {
+			for (String pair : query.split("&")) {
+				int eq = pair.indexOf('=');
+				if (eq < 0) {
+					params.put(URLDecoder.decode(pair, "UTF-8"), "");
+				}
+				else {
+					params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+							URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+				}
+			}
+		}
+		catch (UnsupportedEncodingException | IllegalArgumentException e) {
+			throw new HttpError(400, "Malformed query string");
+		}
+		return params;
+	}
+
+	private static String required(Map<String, String> params, String name) {
+		String value = params.get(name);
+		if (value == null || value.isEmpty()) {
+			throw new HttpError(400, "Missing parameter: " + name);
+		}
+		return value;
+	}
+
+	private static GeographicPoint parsePoint(String text) {
+		String[] parts = text.split(",");
+		if (parts.length != 2) {
+			throw new HttpError(400, "Points must be lat,lon: " + text);
+		}
+		return new GeographicPoint(parseDouble(parts[0]), parseDouble(parts[1]));
+	}
+
+	private static List<GeographicPoint> parsePoints(String text) {
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>();
+		for (String point : text.split(";")) {
+			points.add(parsePoint(point));
+		}
+		return points;
+	}
+
+	private static List<GeographicPoint> parsePoints(JsonObject body, String name) {
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>();
+		try {
+			JsonArray array = body.getJsonArray(name);
+			if (array == null) {
+				throw new HttpError(400, "Missing field: " + name);
+			}
+			for (JsonArray pair : array.getValuesAs(JsonArray.class)) {
+				if (pair.size() != 2) {
+					throw new HttpError(400, "Points must be [lat, lon] pairs");
+				}
+				points.add(new GeographicPoint(pair.getJsonNumber(0).doubleValue(),
+						pair.getJsonNumber(1).doubleValue()));
+			}
+		}
+		catch (ClassCastException e) {
+			throw new HttpError(400, "Points must be [lat, lon] pairs");
+		}
+		return points;
+	}
+
+	private static double parseDouble(String text) {
+		try {
+			return Double.parseDouble(text.trim());
+		}
+		catch (NumberFormatException e) {
+			throw new HttpError(400, "Not a number: " + text);
+		}
+	}
+
+	private static int parseInt(String text) {
+		try {
+			return Integer.parseInt(text.trim());
+		}
+		catch (NumberFormatException e) {
+			throw new HttpError(400, "Not an integer: " + text);
+		}
+	}
+
+	/**
+	 * Start a server.
+	 * Usage: RoutingServer [-port N] [-threads N] [-snapshots] [file.map ...]
+	 * With no map files every map in data/maps is loaded. -snapshots loads
+	 * the maps from binary snapshots, saving them next to the maps first.
+	 * @param args The options and map files
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = DEFAULT_PORT;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if ("-port".equals(args[i]) && i + 1 < args.length) {
+				port = Integer.parseInt(args[++i]);
+			}
+			else if ("-threads".equals(args[i]) && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			}
+			else if ("-snapshots".equals(args[i])) {
+				GraphLoader.setUseSnapshots(true);
+			}
+			else {
+				files.add(args[i]);
+			}
+		}
+		if (files.isEmpty()) {
+			String[] names = new File(MAP_DIRECTORY).list((dir, name) -> name.endsWith(".map"));
+			if (names != null) {
+				Arrays.sort(names);
+				for (String name : names) {
+					files.add(MAP_DIRECTORY + name);
+				}
+			}
+		}
+		if (files.isEmpty()) {
+			System.out.println("Usage: RoutingServer [-port N] [-threads N] [-snapshots] [file.map ...]");
+			return;
+		}
+
+		Map<String, DataSet> dataSets = new LinkedHashMap<String, DataSet>();
+		for (String file : files) {
+			DataSet dataSet = new DataSet(file);
+			dataSet.initializeGraph();
+			String name = new File(file).getName().replaceFirst("\\.map$", "");
+			dataSets.put(name, dataSet);
+			System.out.println("Loaded " + name + ": " + dataSet.getGraph().getNumVertices()
+					+ " intersections");
+		}
+
+		RoutingServer server = new RoutingServer(dataSets, port, threads);
+		// the workers are daemons; the server's own dispatcher thread keeps
+		// the JVM running
+		server.start();
+		System.out.println("Routing server listening on port " + server.getPort());
+	}
+}
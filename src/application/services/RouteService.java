@@ -5,7 +5,6 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -16,8 +15,6 @@ import application.MarkerManager;
 import application.RouteVisualization;
 import application.controllers.RouteController;
 
-import java.util.Iterator;
-
 import geography.GeographicPoint;
 import geography.RoadSegment;
 import gmapsfx.GoogleMapView;
@@ -25,6 +22,8 @@ import gmapsfx.javascript.object.GoogleMap;
 import gmapsfx.javascript.object.LatLong;
 import gmapsfx.javascript.object.LatLongBounds;
 import gmapsfx.javascript.object.MVCArray;
+import gmapsfx.shapes.Polygon;
+import gmapsfx.shapes.PolygonOptions;
 import gmapsfx.shapes.Polyline;
 import javafx.scene.control.Button;
 
@@ -150,53 +149,49 @@ public class RouteService {
      */
     private List<LatLong> constructMapPath(List<geography.GeographicPoint> path) {
     	List<LatLong> retVal = new ArrayList<LatLong>();
-        List<geography.GeographicPoint> segmentList = null;
+    	DataSet dataSet = markerManager.getDataSet();
     	geography.GeographicPoint curr;
     	geography.GeographicPoint next;
 
-    	geography.RoadSegment chosenSegment = null;;
-
         for(int i = 0; i < path.size() - 1; i++) {
-            double minLength = Double.MAX_VALUE;
         	curr = path.get(i);
         	next = path.get(i+1);
 
-        	if(markerManager.getDataSet().getRoads().containsKey(curr)) {
-        		HashSet<geography.RoadSegment> segments = markerManager.getDataSet().getRoads().get(curr);
-        		Iterator<geography.RoadSegment> it = segments.iterator();
-
-        		// get segments which are
-            	geography.RoadSegment currSegment;
-                while(it.hasNext()) {
-                    //System.out.println("new segment");
-                	currSegment = it.next();
-                	if(currSegment.getOtherPoint(curr).equals(next)) {
-                        //System.out.println("1st check passed : other point correct");
-                		if(currSegment.getLength() < minLength) {
-                            //System.out.println("2nd check passed : length less");
-                			chosenSegment = currSegment;
-                		}
-                	}
-                }
-
-                if(chosenSegment != null) {
-                    segmentList = chosenSegment.getPoints(curr, next);
-                    for(geography.GeographicPoint point : segmentList) {
-                        retVal.add(new LatLong(point.getX(), point.getY()));
-                    }
-                }
-                else {
-                	System.err.println("ERROR in constructMapPath : chosenSegment was null");
-                }
-        		// find
-
-        	}
+        	// the data set indexes the shortest segment for each pair
+        	geography.RoadSegment chosenSegment = dataSet.getSegment(curr, next);
+            if(chosenSegment != null) {
+                chosenSegment.forEachPoint(curr, next,
+                		point -> retVal.add(new LatLong(point.getX(), point.getY())));
+            }
+            else {
+            	System.err.println("ERROR in constructMapPath : chosenSegment was null");
+            }
         }
 
         // System.out.println("NOW there are " + retVal.size() + " points");
     	return retVal;
     }
 
+    /**
+     * Make a shape outlining an area of the map, such as a service area
+     * from Isochrone.getHull, ready for map.addMapShape
+     * @param corners - corners of the area in drawing order
+     * @return filled polygon through the corners
+     */
+    public static Polygon toPolygon(List<geography.GeographicPoint> corners) {
+    	MVCArray path = new MVCArray();
+    	for(geography.GeographicPoint point : corners) {
+    		path.push(new LatLong(point.getX(), point.getY()));
+    	}
+    	PolygonOptions options = new PolygonOptions()
+    			.paths(path)
+    			.strokeColor("#1e64c8")
+    			.strokeWeight(2)
+    			.fillColor("#1e64c8")
+    			.fillOpacity(0.2);
+    	return new Polygon(options);
+    }
+
 
 	private void removeRouteLine() {
         if(routeLine != null) {
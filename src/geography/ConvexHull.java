@@ -0,0 +1,78 @@
+package geography;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The convex hull of a set of locations, for outlining an area such as the
+ * part of a map reachable within some distance.
+ *
+ * Longitude and latitude are treated as plane coordinates, which is close
+ * enough for the city sized areas the maps cover.
+ *
+ * @author imdaz
+ */
+public final class ConvexHull {
+
+	private ConvexHull() {
+	}
+
+	/**
+	 * Find the convex hull of some points with Andrew's monotone chain
+	 * algorithm, in O(n log n).
+	 * @param points The points to enclose
+	 * @return The corners of the hull in counter-clockwise order, without
+	 * repeating the first. Fewer than three points are returned as they are,
+	 * without duplicates.
+	 */
+	public static List<GeographicPoint> of(Collection<GeographicPoint> points) {
+		List<GeographicPoint> sorted = new ArrayList<GeographicPoint>(points);
+		// sort by longitude, then latitude
+		Collections.sort(sorted, (a, b) -> {
+			int c = Double.compare(a.getY(), b.getY());
+			return c != 0 ? c : Double.compare(a.getX(), b.getX());
+		});
+		int n = 0;
+		for (GeographicPoint p : sorted) {
+			if (n == 0 || !p.equals(sorted.get(n - 1))) {
+				sorted.set(n++, p);
+			}
+		}
+		sorted.subList(n, sorted.size()).clear();
+		if (n < 3) {
+			return sorted;
+		}
+
+		GeographicPoint[] hull = new GeographicPoint[2 * n];
+		int k = 0;
+		// lower hull, then upper hull; each pops points that turn clockwise
+		for (int i = 0; i < n; i++) {
+			while (k >= 2 && cross(hull[k - 2], hull[k - 1], sorted.get(i)) <= 0) {
+				k--;
+			}
+			hull[k++] = sorted.get(i);
+		}
+		for (int i = n - 2, lower = k + 1; i >= 0; i--) {
+			while (k >= lower && cross(hull[k - 2], hull[k - 1], sorted.get(i)) <= 0) {
+				k--;
+			}
+			hull[k++] = sorted.get(i);
+		}
+
+		List<GeographicPoint> result = new ArrayList<GeographicPoint>(k - 1);
+		for (int i = 0; i < k - 1; i++) {
+			result.add(hull[i]);
+		}
+		return result;
+	}
+
+	// Positive if o, a, b turn counter-clockwise, with x = lon and y = lat
+	private static double cross(GeographicPoint o, GeographicPoint a,
+			GeographicPoint b) {
+		return (a.getY() - o.getY()) * (b.getX() - o.getX())
+				- (a.getX() - o.getX()) * (b.getY() - o.getY());
+	}
+
+}
@@ -3,6 +3,7 @@ package geography;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 /** 
  * A segment of the road that includes the intersection end points
@@ -66,6 +67,65 @@ public class RoadSegment {
 		return allPoints;
 	}
 	
+	/** Pass all of the points from start to end in that order on this 
+	 * segment to an action, without copying them into a new list.
+	 * @param start
+	 * @param end
+	 * @param action Called with each point
+	 */
+	public void forEachPoint(GeographicPoint start, GeographicPoint end,
+							 Consumer<GeographicPoint> action)
+	{
+		if (point1.equals(start) && point2.equals(end)) {
+			action.accept(start);
+			for (GeographicPoint pt : geometryPoints) {
+				action.accept(pt);
+			}
+			action.accept(end);
+		}
+		else if (point2.equals(start) && point1.equals(end)) {
+			action.accept(start);
+			for (int i = geometryPoints.size() - 1; i >= 0; i--) {
+				action.accept(geometryPoints.get(i));
+			}
+			action.accept(end);
+		}
+		else {
+			throw new IllegalArgumentException("Start and end points do not "
+					+ "match end points of segment");
+		}
+	}
+	
+	/** Find the point a fraction of the way from start to end along this
+	 * segment's geometry, measured by distance along the road.
+	 * @param start
+	 * @param end
+	 * @param fraction 0 for start, 1 for end; clamped to that range
+	 * @return The point, linearly interpolated between geometry points
+	 */
+	public GeographicPoint pointAt(GeographicPoint start, GeographicPoint end,
+								   double fraction)
+	{
+		List<GeographicPoint> points = getPoints(start, end);
+		double total = 0;
+		for (int i = 1; i < points.size(); i++) {
+			total += points.get(i - 1).distance(points.get(i));
+		}
+		double remaining = Math.max(0, Math.min(1, fraction)) * total;
+		for (int i = 1; i < points.size(); i++) {
+			GeographicPoint a = points.get(i - 1);
+			GeographicPoint b = points.get(i);
+			double step = a.distance(b);
+			if (remaining <= step) {
+				double t = step == 0 ? 0 : remaining / step;
+				return new GeographicPoint(a.getX() + t * (b.getX() - a.getX()),
+						a.getY() + t * (b.getY() - a.getY()));
+			}
+			remaining -= step;
+		}
+		return end;
+	}
+	
 	/** Two road segments are equal if they have the same start and end points
 	 *  and they have the same road name.
 	 */
@@ -109,6 +169,18 @@ public class RoadSegment {
 	// get the length of the road segment
 	public double getLength() { return this.length; }
 	
+	// get the end points of the road segment
+	public GeographicPoint getPoint1() { return this.point1; }
+	public GeographicPoint getPoint2() { return this.point2; }
+	
+	// get the points between the end points, from point1 to point2
+	public List<GeographicPoint> getGeometryPoints() { 
+		return Collections.unmodifiableList(this.geometryPoints); 
+	}
+	
+	public String getRoadName() { return this.roadName; }
+	public String getRoadType() { return this.roadType; }
+	
 	
 	// given one end, return the other.
 	public geography.GeographicPoint getOtherPoint(geography.GeographicPoint point) {
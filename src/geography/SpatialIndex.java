@@ -0,0 +1,395 @@
+package geography;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A uniform grid over points and road segments for nearest neighbour
+ * queries, so clicked coordinates can be snapped to the map without
+ * scanning every intersection or segment.
+ *
+ * The grid covers the bounding box of the indexed data with square cells
+ * holding a couple of items each. A query visits rings of cells around the
+ * query's cell and stops as soon as no cell outside the rings visited can
+ * hold anything closer. Distances are measured on an equirectangular
+ * projection centred on the query, which for city sized maps agrees with
+ * the great circle distance to well under a metre.
+ *
+ * Segments are indexed as the straight pieces between consecutive points of
+ * their geometry, each in every cell its bounding box touches.
+ *
+ * The index is immutable and may be queried from several threads.
+ */
+public class SpatialIndex
+{
+	// radius of the earth in km, as in GeographicPoint
+	private static final double EARTH_RADIUS = 6373;
+	private static final double KM_PER_DEGREE = Math.PI / 180 * EARTH_RADIUS;
+	private static final int ITEMS_PER_CELL = 2;
+
+	private final double minLat;
+	private final double minLon;
+	private final double cellLat;
+	private final double cellLon;
+	private final int rows;
+	private final int cols;
+
+	private final GeographicPoint[] points;
+	// ids of the points in cell c are pointIds[pointStart[c]..pointStart[c+1])
+	private final int[] pointStart;
+	private final int[] pointIds;
+
+	private final RoadSegment[] segments;
+	// piece i runs from (pieceLat[2i], pieceLon[2i]) to (pieceLat[2i+1], pieceLon[2i+1])
+	private final double[] pieceLat;
+	private final double[] pieceLon;
+	private final int[] pieceSegment;
+	private final int[] pieceStart;
+	private final int[] pieceIds;
+
+	/**
+	 * The closest point on a road to a query location.
+	 */
+	public static class Snap
+	{
+		private final RoadSegment segment;
+		private final GeographicPoint point;
+		private final double distance;
+
+		Snap(RoadSegment segment, GeographicPoint point, double distance)
+		{
+			this.segment = segment;
+			this.point = point;
+			this.distance = distance;
+		}
+
+		/** The segment the point is on */
+		public RoadSegment getSegment() { return segment; }
+
+		/** The point on the segment closest to the query */
+		public GeographicPoint getPoint() { return point; }
+
+		/** Distance in km from the query to the point */
+		public double getDistance() { return distance; }
+
+		public String toString()
+		{
+			return point + " on " + segment.getRoadName() + " (" + distance + " km)";
+		}
+	}
+
+	/**
+	 * Index points only.
+	 * @param points The points to index, such as the intersections of a map
+	 */
+	public SpatialIndex(Collection<GeographicPoint> points)
+	{
+		this(points, new ArrayList<RoadSegment>());
+	}
+
+	/**
+	 * Index points and road segments.
+	 * @param points The points to index, such as the intersections of a map
+	 * @param segments The road segments to snap to
+	 */
+	public SpatialIndex(Collection<GeographicPoint> points,
+			Collection<RoadSegment> segments)
+	{
+		this.points = points.toArray(new GeographicPoint[points.size()]);
+		this.segments = segments.toArray(new RoadSegment[segments.size()]);
+
+		int numPieces = 0;
+		for (RoadSegment segment : this.segments) {
+			numPieces += segment.getGeometryPoints().size() + 1;
+		}
+		pieceLat = new double[2 * numPieces];
+		pieceLon = new double[2 * numPieces];
+		pieceSegment = new int[numPieces];
+		int piece = 0;
+		for (int s = 0; s < this.segments.length; s++) {
+			RoadSegment segment = this.segments[s];
+			GeographicPoint prev = segment.getPoint1();
+			List<GeographicPoint> geometry = segment.getGeometryPoints();
+			for (int i = 0; i <= geometry.size(); i++) {
+				GeographicPoint next = i < geometry.size() ? geometry.get(i)
+						: segment.getPoint2();
+				pieceLat[2 * piece] = prev.getX();
+				pieceLon[2 * piece] = prev.getY();
+				pieceLat[2 * piece + 1] = next.getX();
+				pieceLon[2 * piece + 1] = next.getY();
+				pieceSegment[piece++] = s;
+				prev = next;
+			}
+		}
+
+		double lat0 = Double.POSITIVE_INFINITY;
+		double lat1 = Double.NEGATIVE_INFINITY;
+		double lon0 = Double.POSITIVE_INFINITY;
+		double lon1 = Double.NEGATIVE_INFINITY;
+		for (GeographicPoint pt : this.points) {
+			lat0 = Math.min(lat0, pt.getX());
+			lat1 = Math.max(lat1, pt.getX());
+			lon0 = Math.min(lon0, pt.getY());
+			lon1 = Math.max(lon1, pt.getY());
+		}
+		for (int i = 0; i < pieceLat.length; i++) {
+			lat0 = Math.min(lat0, pieceLat[i]);
+			lat1 = Math.max(lat1, pieceLat[i]);
+			lon0 = Math.min(lon0, pieceLon[i]);
+			lon1 = Math.max(lon1, pieceLon[i]);
+		}
+		if (lat0 > lat1) {
+			// nothing to index
+			lat0 = lat1 = lon0 = lon1 = 0;
+		}
+
+		// Square cells on the projection, sized for a few items per cell
+		double scale = Math.cos(Math.toRadians((lat0 + lat1) / 2));
+		double height = lat1 - lat0;
+		double width = (lon1 - lon0) * scale;
+		int target = Math.max(1, (this.points.length + numPieces) / ITEMS_PER_CELL);
+		double side;
+		if (height > 0 && width > 0) {
+			side = Math.sqrt(height * width / target);
+		}
+		else if (height > 0 || width > 0) {
+			side = Math.max(height, width) / target;
+		}
+		else {
+			side = 1;
+		}
+		// long thin maps get at most target cells along their length
+		side = Math.max(side, Math.max(height, width) / target);
+		minLat = lat0;
+		minLon = lon0;
+		cellLat = side;
+		cellLon = side / scale;
+		rows = (int)(height / cellLat) + 1;
+		cols = (int)((lon1 - lon0) / cellLon) + 1;
+
+		pointStart = new int[rows * cols + 1];
+		for (GeographicPoint pt : this.points) {
+			pointStart[cell(pt.getX(), pt.getY()) + 1]++;
+		}
+		for (int c = 0; c < rows * cols; c++) {
+			pointStart[c + 1] += pointStart[c];
+		}
+		pointIds = new int[this.points.length];
+		int[] next = new int[rows * cols];
+		System.arraycopy(pointStart, 0, next, 0, next.length);
+		for (int i = 0; i < this.points.length; i++) {
+			pointIds[next[cell(this.points[i].getX(), this.points[i].getY())]++] = i;
+		}
+
+		pieceStart = new int[rows * cols + 1];
+		for (int p = 0; p < numPieces; p++) {
+			countPiece(p, pieceStart);
+		}
+		for (int c = 0; c < rows * cols; c++) {
+			pieceStart[c + 1] += pieceStart[c];
+		}
+		pieceIds = new int[pieceStart[rows * cols]];
+		System.arraycopy(pieceStart, 0, next, 0, next.length);
+		for (int p = 0; p < numPieces; p++) {
+			fillPiece(p, next);
+		}
+	}
+
+	/**
+	 * Find the indexed point closest to a location.
+	 * @param lat The latitude of the location
+	 * @param lon The longitude of the location
+	 * @return The closest point, or null if no points are indexed
+	 */
+	public GeographicPoint nearest(double lat, double lon)
+	{
+		List<GeographicPoint> nearest = kNearest(lat, lon, 1);
+		return nearest.isEmpty() ? null : nearest.get(0);
+	}
+
+	/**
+	 * Find the k indexed points closest to a location.
+	 * @param lat The latitude of the location
+	 * @param lon The longitude of the location
+	 * @param k The number of points to find
+	 * @return Up to k points, closest first
+	 */
+	public List<GeographicPoint> kNearest(double lat, double lon, int k)
+	{
+		if (k < 0) {
+			throw new IllegalArgumentException("k must not be negative");
+		}
+		k = Math.min(k, points.length);
+		// the closest points found so far, sorted by squared distance
+		int[] best = new int[k];
+		double[] bestDist = new double[k];
+		int found = 0;
+
+		double scale = Math.cos(Math.toRadians(lat));
+		int row = row(lat);
+		int col = col(lon);
+		for (int r = 0; k > 0; r++) {
+			for (int i = Math.max(0, row - r); i <= Math.min(rows - 1, row + r); i++) {
+				int step = (i == row - r || i == row + r) ? 1 : 2 * r;
+				for (int j = col - r; j <= col + r; j += step) {
+					if (j < 0 || j >= cols) {
+						continue;
+					}
+					int c = i * cols + j;
+					for (int s = pointStart[c]; s < pointStart[c + 1]; s++) {
+						int id = pointIds[s];
+						double dLat = points[id].getX() - lat;
+						double dLon = (points[id].getY() - lon) * scale;
+						double d = dLat * dLat + dLon * dLon;
+						if (found < k || d < bestDist[found - 1]) {
+							int pos = found < k ? found++ : found - 1;
+							while (pos > 0 && bestDist[pos - 1] > d) {
+								best[pos] = best[pos - 1];
+								bestDist[pos] = bestDist[pos - 1];
+								pos--;
+							}
+							best[pos] = id;
+							bestDist[pos] = d;
+						}
+					}
+				}
+			}
+			double outside = outsideDistance(lat, lon, scale, row, col, r);
+			if (outside == Double.POSITIVE_INFINITY
+					|| (found == k && outside * outside >= bestDist[k - 1])) {
+				break;
+			}
+		}
+
+		List<GeographicPoint> nearest = new ArrayList<GeographicPoint>(found);
+		for (int i = 0; i < found; i++) {
+			nearest.add(points[best[i]]);
+		}
+		return nearest;
+	}
+
+	/**
+	 * Find the closest point on any indexed road segment to a location.
+	 * @param lat The latitude of the location
+	 * @param lon The longitude of the location
+	 * @return The closest point and its segment, or null if no segments
+	 *   are indexed
+	 */
+	public Snap snap(double lat, double lon)
+	{
+		if (segments.length == 0) {
+			return null;
+		}
+		double scale = Math.cos(Math.toRadians(lat));
+		int best = -1;
+		double bestDist = Double.POSITIVE_INFINITY;
+		double bestX = 0;
+		double bestY = 0;
+
+		int row = row(lat);
+		int col = col(lon);
+		for (int r = 0; ; r++) {
+			for (int i = Math.max(0, row - r); i <= Math.min(rows - 1, row + r); i++) {
+				int step = (i == row - r || i == row + r) ? 1 : 2 * r;
+				for (int j = col - r; j <= col + r; j += step) {
+					if (j < 0 || j >= cols) {
+						continue;
+					}
+					int c = i * cols + j;
+					for (int s = pieceStart[c]; s < pieceStart[c + 1]; s++) {
+						int p = pieceIds[s];
+						// project onto the piece, with the query at the origin
+						double ax = (pieceLon[2 * p] - lon) * scale;
+						double ay = pieceLat[2 * p] - lat;
+						double bx = (pieceLon[2 * p + 1] - lon) * scale - ax;
+						double by = pieceLat[2 * p + 1] - lat - ay;
+						double lengthSq = bx * bx + by * by;
+						double t = lengthSq == 0 ? 0
+								: Math.max(0, Math.min(1, -(ax * bx + ay * by) / lengthSq));
+						double x = ax + t * bx;
+						double y = ay + t * by;
+						double d = x * x + y * y;
+						if (d < bestDist) {
+							best = p;
+							bestDist = d;
+							bestX = x;
+							bestY = y;
+						}
+					}
+				}
+			}
+			double outside = outsideDistance(lat, lon, scale, row, col, r);
+			if (outside == Double.POSITIVE_INFINITY || outside * outside >= bestDist) {
+				break;
+			}
+		}
+
+		GeographicPoint point = new GeographicPoint(lat + bestY, lon + bestX / scale);
+		return new Snap(segments[pieceSegment[best]], point,
+				Math.sqrt(bestDist) * KM_PER_DEGREE);
+	}
+
+	// Lower bound, in projected degrees, on the distance from the query to
+	// any cell outside the block of rings 0..r. Sides where the block has
+	// reached the edge of the grid have nothing beyond them.
+	private double outsideDistance(double lat, double lon, double scale,
+			int row, int col, int r)
+	{
+		double d = Double.POSITIVE_INFINITY;
+		if (row - r > 0) {
+			d = Math.min(d, lat - (minLat + (row - r) * cellLat));
+		}
+		if (row + r < rows - 1) {
+			d = Math.min(d, minLat + (row + r + 1) * cellLat - lat);
+		}
+		if (col - r > 0) {
+			d = Math.min(d, (lon - (minLon + (col - r) * cellLon)) * scale);
+		}
+		if (col + r < cols - 1) {
+			d = Math.min(d, (minLon + (col + r + 1) * cellLon - lon) * scale);
+		}
+		return Math.max(0, d);
+	}
+
+	private int row(double lat)
+	{
+		return (int)Math.max(0, Math.min(rows - 1, Math.floor((lat - minLat) / cellLat)));
+	}
+
+	private int col(double lon)
+	{
+		return (int)Math.max(0, Math.min(cols - 1, Math.floor((lon - minLon) / cellLon)));
+	}
+
+	private int cell(double lat, double lon)
+	{
+		return row(lat) * cols + col(lon);
+	}
+
+	private void countPiece(int p, int[] counts)
+	{
+		int r0 = row(Math.min(pieceLat[2 * p], pieceLat[2 * p + 1]));
+		int r1 = row(Math.max(pieceLat[2 * p], pieceLat[2 * p + 1]));
+		int c0 = col(Math.min(pieceLon[2 * p], pieceLon[2 * p + 1]));
+		int c1 = col(Math.max(pieceLon[2 * p], pieceLon[2 * p + 1]));
+		for (int i = r0; i <= r1; i++) {
+			for (int j = c0; j <= c1; j++) {
+				counts[i * cols + j + 1]++;
+			}
+		}
+	}
+
+	private void fillPiece(int p, int[] next)
+	{
+		int r0 = row(Math.min(pieceLat[2 * p], pieceLat[2 * p + 1]));
+		int r1 = row(Math.max(pieceLat[2 * p], pieceLat[2 * p + 1]));
+		int c0 = col(Math.min(pieceLon[2 * p], pieceLon[2 * p + 1]));
+		int c1 = col(Math.max(pieceLon[2 * p], pieceLon[2 * p + 1]));
+		for (int i = r0; i <= r1; i++) {
+			for (int j = c0; j <= c1; j++) {
+				pieceIds[next[i * cols + j]++] = p;
+			}
+		}
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Finds several good routes between two vertices instead of one.
+ *
+ * kShortest is Yen's algorithm: each new path leaves a path already found
+ * at some spur vertex and reaches the goal by a shortest path that avoids
+ * the root up to the spur and every next edge taken there by the paths
+ * found before. Edges are removed by giving them an infinite length factor,
+ * so every spur search reuses one DijkstraSearch and one factor array.
+ *
+ * penalized finds alternatives much faster by repeating a single search,
+ * each time making the edges of the route just found longer. A route is
+ * kept only if it is not much longer than the shortest one and does not
+ * share too much of its length with any route kept before.
+ *
+ * An instance holds mutable search state for one query at a time and must
+ * not be shared between threads.
+ *
+ * @author imdaz
+ */
+class AlternativeRoutes {
+
+    // factor applied to the edges of each route found by penalized
+    private static final double PENALTY = 1.4;
+
+    // searches per route asked for before penalized gives up
+    private static final int ATTEMPTS_PER_ROUTE = 4;
+
+    private final RoutingGraph graph;
+    private final DijkstraSearch search;
+    private final double[] factor;
+
+    AlternativeRoutes(RoutingGraph graph, DijkstraSearch search) {
+        this.graph = graph;
+        this.search = search;
+        this.factor = new double[graph.getNumEdges()];
+        Arrays.fill(factor, 1.0);
+    }
+
+    /** A path as vertex ids with its length, equal to paths of the same ids */
+    private static final class Path implements Comparable<Path> {
+
+        final int[] vertices;
+        final double length;
+
+        Path(int[] vertices, double length) {
+            this.vertices = vertices;
+            this.length = length;
+        }
+
+        @Override
+        public int compareTo(Path other) {
+            return Double.compare(length, other.length);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Path && Arrays.equals(vertices, ((Path) o).vertices);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(vertices);
+        }
+    }
+
+    /**
+     * Find the k shortest loopless paths, shortest first.
+     *
+     * @param source The id of the start vertex
+     * @param target The id of the goal vertex
+     * @param k The number of paths wanted
+     * @return Up to k routes
+     */
+    List<Route> kShortest(int source, int target, int k) {
+        List<Route> result = new ArrayList<>();
+        if (k <= 0 || !search.search(source, target, factor)) {
+            return result;
+        }
+        List<Path> found = new ArrayList<>();
+        found.add(new Path(search.buildIdPath(target), search.getDistance(target)));
+        PriorityQueue<Path> candidates = new PriorityQueue<>();
+        Set<Path> seen = new HashSet<>(found);
+        EdgeList removed = new EdgeList();
+
+        while (found.size() < k) {
+            int[] last = found.get(found.size() - 1).vertices;
+            double rootLength = 0;
+            for (int i = 0; i + 1 < last.length; i++) {
+                int spur = last[i];
+
+                // leave out the next edge of every path with the same root
+                for (Path path : found) {
+                    int[] p = path.vertices;
+                    if (p.length > i + 1 && samePrefix(p, last, i + 1)) {
+                        removed.remove(Route.edgeBetween(graph, p[i], p[i + 1]));
+                    }
+                }
+                // and the root itself, so spur paths cannot loop back into it
+                for (int j = 0; j < i; j++) {
+                    int v = last[j];
+                    for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                        removed.remove(e);
+                    }
+                    for (int s = graph.firstInEdge(v); s < graph.endInEdge(v); s++) {
+                        removed.remove(graph.getInEdge(s));
+                    }
+                }
+
+                if (search.search(spur, target, factor)) {
+                    int[] spurPath = search.buildIdPath(target);
+                    int[] vertices = Arrays.copyOf(last, i + spurPath.length);
+                    System.arraycopy(spurPath, 0, vertices, i, spurPath.length);
+                    Path candidate = new Path(vertices,
+                            rootLength + search.getDistance(target));
+                    if (seen.add(candidate)) {
+                        candidates.add(candidate);
+                    }
+                }
+                removed.restore();
+
+                rootLength += graph.getLength(Route.edgeBetween(graph, spur, last[i + 1]));
+            }
+
+            if (candidates.isEmpty()) {
+                break;
+            }
+            found.add(candidates.poll());
+        }
+
+        for (Path path : found) {
+            result.add(Route.of(graph, path.vertices));
+        }
+        return result;
+    }
+
+    /**
+     * Find alternative routes by penalizing the edges of routes found.
+     *
+     * @param source The id of the start vertex
+     * @param target The id of the goal vertex
+     * @param max The number of routes wanted
+     * @param maxOverlap The largest part of a route's length it may share
+     * with a route kept before, from 0 to 1
+     * @param maxStretch How much longer than the shortest route a route may
+     * be, 0.25 for 25%
+     * @return Up to max routes, the shortest first
+     */
+    List<Route> penalized(int source, int target, int max, double maxOverlap,
+            double maxStretch) {
+        List<Route> result = new ArrayList<>();
+        List<long[]> keptEdges = new ArrayList<>();
+        for (int attempt = 0; attempt < ATTEMPTS_PER_ROUTE * max
+                && result.size() < max; attempt++) {
+            if (!search.search(source, target, factor)) {
+                break;
+            }
+            int[] vertices = search.buildIdPath(target);
+            int[] edges = new int[vertices.length - 1];
+            double length = 0;
+            for (int i = 0; i < edges.length; i++) {
+                edges[i] = Route.edgeBetween(graph, vertices[i], vertices[i + 1]);
+                length += graph.getLength(edges[i]);
+            }
+
+            if (result.isEmpty() || acceptable(edges, length, keptEdges,
+                    result.get(0).getLength(), maxOverlap, maxStretch)) {
+                long[] bits = new long[(factor.length + 63) >>> 6];
+                for (int e : edges) {
+                    bits[e >>> 6] |= 1L << e;
+                }
+                keptEdges.add(bits);
+                result.add(Route.of(graph, vertices));
+            }
+            for (int e : edges) {
+                factor[e] *= PENALTY;
+            }
+        }
+        return result;
+    }
+
+    private boolean acceptable(int[] edges, double length, List<long[]> keptEdges,
+            double shortest, double maxOverlap, double maxStretch) {
+        if (length > shortest * (1 + maxStretch)) {
+            return false;
+        }
+        for (long[] bits : keptEdges) {
+            double shared = 0;
+            for (int e : edges) {
+                if ((bits[e >>> 6] & (1L << e)) != 0) {
+                    shared += graph.getLength(e);
+                }
+            }
+            if (shared > maxOverlap * length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean samePrefix(int[] a, int[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Edges left out of the graph, so they can be put back */
+    private final class EdgeList {
+
+        private int[] edges = new int[16];
+        private int size;
+
+        void remove(int e) {
+            if (factor[e] != Double.POSITIVE_INFINITY) {
+                if (size == edges.length) {
+                    edges = Arrays.copyOf(edges, size * 2);
+                }
+                edges[size++] = e;
+                factor[e] = Double.POSITIVE_INFINITY;
+            }
+        }
+
+        void restore() {
+            for (int i = 0; i < size; i++) {
+                factor[edges[i]] = 1.0;
+            }
+            size = 0;
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Bidirectional Dijkstra/A* over a RoutingGraph. A forward search from the
+ * source over outgoing edges and a backward search from the target over
+ * incoming edges run alternately, each step expanding the side whose
+ * frontier has the smaller key. Whenever an edge reaches a vertex labeled by
+ * the other side, the best known path length mu is updated.
+ *
+ * With a heuristic both sides use the average potential
+ * p(v) = (toTarget(v) - fromSource(v)) / 2, forward keys being dist + p and
+ * backward keys dist - p. Reduced edge costs stay non-negative for consistent
+ * heuristics, so the classic stopping rule holds for both modes: stop once
+ * the two smallest keys add up to at least mu.
+ *
+ * Labels of both sides are valid only when their stamp equals the current
+ * generation, so starting a search costs O(1) and an instance can be reused.
+ * Like DijkstraSearch it gives up with a CancellationException when its
+ * thread is interrupted.
+ *
+ * An instance holds mutable search state and must not be shared between
+ * threads.
+ *
+ * @author imdaz
+ */
+class BidirectionalSearch {
+
+    private RoutingGraph graph;
+    private final double[] forwardDist;
+    private final double[] backwardDist;
+    private final int[] forwardParent;
+    private final int[] backwardParent;
+    private final int[] stamp;
+    private final IndexedMinHeap forwardQueue;
+    private final IndexedMinHeap backwardQueue;
+    private int generation;
+
+    private double best;
+    private int meet;
+
+    BidirectionalSearch(RoutingGraph graph) {
+        this.graph = graph;
+        int n = graph.getNumVertices();
+        forwardDist = new double[n];
+        backwardDist = new double[n];
+        forwardParent = new int[n];
+        backwardParent = new int[n];
+        stamp = new int[n];
+        forwardQueue = new IndexedMinHeap(n);
+        backwardQueue = new IndexedMinHeap(n);
+        generation = 0;
+    }
+
+    /**
+     * Search another graph with the same vertices and edges from now on,
+     * such as another weighting of the same roads.
+     *
+     * @param graph The graph to search
+     */
+    void bind(RoutingGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Search for a shortest path from source to target.
+     *
+     * @param source The id of the start vertex
+     * @param target The id of the goal vertex
+     * @param toTarget Lower bound on the distance to the target
+     * @param fromSource Lower bound on the distance from the source
+     * @param nodeSearched Called with the location of every settled vertex,
+     * from either side
+     * @return true if the target is reachable from the source
+     */
+    boolean search(int source, int target, Heuristic toTarget,
+            Heuristic fromSource, Consumer<GeographicPoint> nodeSearched) {
+        if (++generation == 0) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+        forwardQueue.clear();
+        backwardQueue.clear();
+
+        touch(source);
+        touch(target);
+        forwardDist[source] = 0.0;
+        backwardDist[target] = 0.0;
+        forwardQueue.push(source, potential(source, toTarget, fromSource));
+        backwardQueue.push(target, -potential(target, toTarget, fromSource));
+        best = source == target ? 0.0 : Double.POSITIVE_INFINITY;
+        meet = source == target ? source : -1;
+
+        int settled = 0;
+        while (!forwardQueue.isEmpty() && !backwardQueue.isEmpty()) {
+            DijkstraSearch.checkInterrupted(++settled);
+            double forwardKey = forwardQueue.peekKey();
+            double backwardKey = backwardQueue.peekKey();
+            if (forwardKey + backwardKey >= best) {
+                break;
+            }
+
+            if (forwardKey <= backwardKey) {
+                int u = forwardQueue.poll();
+                nodeSearched.accept(graph.getPoint(u));
+                double du = forwardDist[u];
+                for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                    int w = graph.getTarget(e);
+                    double dw = du + graph.getLength(e);
+                    touch(w);
+                    if (dw < forwardDist[w]) {
+                        forwardDist[w] = dw;
+                        forwardParent[w] = u;
+                        forwardQueue.push(w, dw + potential(w, toTarget, fromSource));
+                    }
+                    if (dw + backwardDist[w] < best) {
+                        best = dw + backwardDist[w];
+                        meet = w;
+                    }
+                }
+            } else {
+                int u = backwardQueue.poll();
+                nodeSearched.accept(graph.getPoint(u));
+                double du = backwardDist[u];
+                for (int i = graph.firstInEdge(u), end = graph.endInEdge(u); i < end; i++) {
+                    int w = graph.getInSource(i);
+                    double dw = du + graph.getLength(graph.getInEdge(i));
+                    touch(w);
+                    if (dw < backwardDist[w]) {
+                        backwardDist[w] = dw;
+                        backwardParent[w] = u;
+                        backwardQueue.push(w, dw - potential(w, toTarget, fromSource));
+                    }
+                    if (dw + forwardDist[w] < best) {
+                        best = dw + forwardDist[w];
+                        meet = w;
+                    }
+                }
+            }
+        }
+        return meet >= 0;
+    }
+
+    // Give a vertex first seen in this search empty labels on both sides
+    private void touch(int v) {
+        if (stamp[v] != generation) {
+            stamp[v] = generation;
+            forwardDist[v] = Double.POSITIVE_INFINITY;
+            backwardDist[v] = Double.POSITIVE_INFINITY;
+            forwardParent[v] = -1;
+            backwardParent[v] = -1;
+        }
+    }
+
+    private static double potential(int v, Heuristic toTarget,
+            Heuristic fromSource) {
+        return (toTarget.estimate(v) - fromSource.estimate(v)) / 2;
+    }
+
+    /** Length of the path found by the last search */
+    double getDistance() {
+        return best;
+    }
+
+    /**
+     * Join the forward parents up to the meeting vertex with the backward
+     * parents from it.
+     *
+     * @return The locations from the source to the target, inclusive
+     */
+    List<GeographicPoint> buildPath() {
+        List<GeographicPoint> result = new ArrayList<>();
+        for (int v = meet; v >= 0; v = forwardParent[v]) {
+            result.add(graph.getPoint(v));
+        }
+        Collections.reverse(result);
+        for (int v = backwardParent[meet]; v >= 0; v = backwardParent[v]) {
+            result.add(graph.getPoint(v));
+        }
+        return result;
+    }
+
+}
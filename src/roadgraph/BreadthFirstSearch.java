@@ -0,0 +1,109 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Breadth first search over a RoutingGraph. The frontier is a ring of the
+ * int array queue, vertices already discovered are bits of a long array and
+ * parents are kept by vertex id, so a search hashes nothing and allocates
+ * only its result path.
+ *
+ * Vertices are dequeued in discovery order and discovered in edge order, and
+ * each keeps the parent that discovered it first, which yields the same path
+ * as the original MapNode based search.
+ *
+ * Like DijkstraSearch it gives up with a CancellationException when its
+ * thread is interrupted. An instance holds mutable search state and must not
+ * be shared between threads.
+ *
+ * @author imdaz
+ */
+class BreadthFirstSearch {
+
+    private RoutingGraph graph;
+    private final int[] queue;
+    private final int[] parent;
+    private final long[] discovered;
+
+    BreadthFirstSearch(RoutingGraph graph) {
+        this.graph = graph;
+        int n = graph.getNumVertices();
+        queue = new int[n];
+        parent = new int[n];
+        discovered = new long[(n + 63) >>> 6];
+    }
+
+    /**
+     * Search another graph with the same vertices and edges from now on,
+     * such as another weighting of the same roads.
+     *
+     * @param graph The graph to search
+     */
+    void bind(RoutingGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Search for a path with the fewest edges from source to target.
+     *
+     * @param source The id of the start vertex
+     * @param target The id of the goal vertex
+     * @param nodeSearched Called with the location of every dequeued vertex
+     * @return true if the target is reachable from the source
+     */
+    boolean search(int source, int target, Consumer<GeographicPoint> nodeSearched) {
+        Arrays.fill(discovered, 0L);
+
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = source;
+        parent[source] = -1;
+        discovered[source >>> 6] |= 1L << source;
+
+        while (head < tail) {
+            int u = queue[head++];
+            DijkstraSearch.checkInterrupted(head);
+
+            // Hook for visualization.
+            nodeSearched.accept(graph.getPoint(u));
+
+            if (u == target) {
+                return true;
+            }
+
+            for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                int w = graph.getTarget(e);
+                long bit = 1L << w;
+                if ((discovered[w >>> 6] & bit) == 0) {
+                    discovered[w >>> 6] |= bit;
+                    parent[w] = u;
+                    queue[tail++] = w;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walk the parent array back from a reached target.
+     *
+     * @return The locations from the source to the target, inclusive
+     */
+    List<GeographicPoint> buildPath(int target) {
+        List<GeographicPoint> result = new ArrayList<>();
+        for (int v = target; v >= 0; v = parent[v]) {
+            result.add(graph.getPoint(v));
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+}
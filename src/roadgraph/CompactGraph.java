@@ -0,0 +1,216 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A frozen, integer indexed view of a MapGraph stored in compressed sparse
+ * row (CSR) form. Vertices are numbered 0..numVertices-1 and the outgoing
+ * edges of vertex v are the edge ids offsets[v]..offsets[v+1]-1. Edge targets
+ * and lengths are kept in flat primitive columns so searches can walk the
+ * graph without hashing GeographicPoints or touching MapEdge objects.
+ *
+ * Locations are interned as ids by a PointIndex, so indexOf neither boxes
+ * an Integer nor calls GeographicPoint.hashCode.
+ *
+ * Edges of a vertex keep the iteration order of the MapNode they were built
+ * from, so searches over this view visit neighbors in the same order as
+ * searches over the MapGraph itself.
+ *
+ * The graph also keeps the transposed adjacency (incoming edges per vertex),
+ * which MapNode does not store, for searches that run backwards from the
+ * goal. In-edge slots inOffsets[v]..inOffsets[v+1]-1 name the tail vertex and
+ * the forward edge id of each edge ending at v.
+ *
+ * @author imdaz
+ */
+public final class CompactGraph implements RoutingGraph {
+
+    private final int numVertices;
+    private final int numEdges;
+
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] lengths;
+    private final double[] lat;
+    private final double[] lon;
+
+    private final int[] inOffsets;
+    private final int[] inSources;
+    private final int[] inEdges;
+
+    private final GeographicPoint[] points;
+    private final MapEdge[] edges;
+    private final PointIndex ids;
+
+    /**
+     * Build the CSR arrays from the nodes of a MapGraph.
+     *
+     * @param nodes The nodes of the graph, in the order ids are assigned
+     */
+    CompactGraph(Collection<MapNode> nodes) {
+        numVertices = nodes.size();
+        points = new GeographicPoint[numVertices];
+        lat = new double[numVertices];
+        lon = new double[numVertices];
+        ids = new PointIndex(numVertices);
+
+        int v = 0;
+        int m = 0;
+        for (MapNode node : nodes) {
+            GeographicPoint location = node.getLocation();
+            points[v] = location;
+            lat[v] = location.getX();
+            lon[v] = location.getY();
+            ids.putIfAbsent(location.getX(), location.getY(), v);
+            m += node.getNeighbors().size();
+            v++;
+        }
+
+        numEdges = m;
+        offsets = new int[numVertices + 1];
+        targets = new int[numEdges];
+        lengths = new double[numEdges];
+        edges = new MapEdge[numEdges];
+
+        v = 0;
+        int e = 0;
+        for (MapNode node : nodes) {
+            offsets[v] = e;
+            for (MapEdge edge : node.getNeighbors().values()) {
+                targets[e] = ids.get(edge.getEnd());
+                lengths[e] = edge.getDistance();
+                edges[e] = edge;
+                e++;
+            }
+            v++;
+        }
+        offsets[numVertices] = e;
+
+        inOffsets = new int[numVertices + 1];
+        inSources = new int[numEdges];
+        inEdges = new int[numEdges];
+        for (e = 0; e < numEdges; e++) {
+            inOffsets[targets[e] + 1]++;
+        }
+        for (v = 0; v < numVertices; v++) {
+            inOffsets[v + 1] += inOffsets[v];
+        }
+        int[] next = Arrays.copyOf(inOffsets, numVertices);
+        for (v = 0; v < numVertices; v++) {
+            for (e = offsets[v]; e < offsets[v + 1]; e++) {
+                int slot = next[targets[e]]++;
+                inSources[slot] = v;
+                inEdges[slot] = e;
+            }
+        }
+    }
+
+    @Override
+    public int getNumVertices() {
+        return numVertices;
+    }
+
+    @Override
+    public int getNumEdges() {
+        return numEdges;
+    }
+
+    /**
+     * Get the id of the vertex at a location
+     *
+     * @param location The location of the intersection
+     * @return The vertex id, or -1 if the location is not a vertex
+     */
+    @Override
+    public int indexOf(GeographicPoint location) {
+        return ids.get(location);
+    }
+
+    @Override
+    public GeographicPoint getPoint(int v) {
+        return points[v];
+    }
+
+    @Override
+    public double getLatitude(int v) {
+        return lat[v];
+    }
+
+    @Override
+    public double getLongitude(int v) {
+        return lon[v];
+    }
+
+    /** Id of the first outgoing edge of vertex v */
+    @Override
+    public int firstEdge(int v) {
+        return offsets[v];
+    }
+
+    /** One past the id of the last outgoing edge of vertex v */
+    @Override
+    public int endEdge(int v) {
+        return offsets[v + 1];
+    }
+
+    @Override
+    public int outDegree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    @Override
+    public int getTarget(int e) {
+        return targets[e];
+    }
+
+    @Override
+    public double getLength(int e) {
+        return lengths[e];
+    }
+
+    /** First in-edge slot of vertex v */
+    @Override
+    public int firstInEdge(int v) {
+        return inOffsets[v];
+    }
+
+    /** One past the last in-edge slot of vertex v */
+    @Override
+    public int endInEdge(int v) {
+        return inOffsets[v + 1];
+    }
+
+    @Override
+    public int inDegree(int v) {
+        return inOffsets[v + 1] - inOffsets[v];
+    }
+
+    /** The vertex an incoming edge starts from */
+    @Override
+    public int getInSource(int slot) {
+        return inSources[slot];
+    }
+
+    /** The forward edge id of an incoming edge */
+    @Override
+    public int getInEdge(int slot) {
+        return inEdges[slot];
+    }
+
+    /** The MapEdge an edge id was built from, for road name and type */
+    public MapEdge getEdge(int e) {
+        return edges[e];
+    }
+
+    @Override
+    public String toString() {
+        return "CompactGraph{" + "numVertices=" + numVertices
+                + ", numEdges=" + numEdges + '}';
+    }
+
+}
@@ -0,0 +1,637 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Contraction Hierarchy (CH) over a RoutingGraph for fast point to point
+ * queries.
+ *
+ * Preprocessing contracts the vertices one at a time, least important first,
+ * where importance is the edge difference (shortcuts added minus edges
+ * removed) plus the number of already contracted neighbors. Contracting v
+ * adds a shortcut u->w for every pair of remaining neighbors whose shortest
+ * path runs through v, unless a local witness search finds a path avoiding
+ * v that is no longer. Every shortcut remembers the two hierarchy edges it
+ * replaces, so it can be unpacked back into the original MapEdges.
+ *
+ * A query runs Dijkstra from the source over edges leading to higher ranked
+ * vertices and from the target over reversed edges leading to higher ranked
+ * vertices. Both meet at the highest ranked vertex of a shortest path, so
+ * each side only explores a small upward search space.
+ *
+ * A built hierarchy is immutable and may be queried from many threads; each
+ * thread gets its own reusable query state, which it drops once the
+ * hierarchy is no longer used. A thread that is interrupted abandons its
+ * query with a CancellationException.
+ *
+ * @author imdaz
+ */
+public final class ContractionHierarchy {
+
+    // Witness searches give up after settling this many vertices. Giving up
+    // only adds a shortcut that may not be needed, it never loses a path.
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+
+    private final RoutingGraph graph;
+
+    // Every edge of the hierarchy. Ids below graph.getNumEdges() start out as
+    // the original edges with the same ids, the rest are shortcuts. A
+    // shortcut's halves are stored in edgeChild1/edgeChild2, which are -1 for
+    // original edges. An original edge beaten by a shorter path through a
+    // contracted vertex is turned into a shortcut for that path.
+    private final int numEdges;
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+    private final int[] edgeChild1;
+    private final int[] edgeChild2;
+
+    // Edges u->w with rank[u] < rank[w], grouped by u
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    private final int[] upEdges;
+
+    // Edges u->w with rank[u] > rank[w], grouped by w and pointing back to u
+    private final int[] downOffsets;
+    private final int[] downSources;
+    private final double[] downWeights;
+    private final int[] downEdges;
+
+    // per-thread query state, see SearchStates
+    private final SearchStates searchStates;
+
+    /**
+     * Contract a graph. This takes time roughly linear in the graph size
+     * for road networks.
+     *
+     * @param graph The graph to build the hierarchy for
+     */
+    public ContractionHierarchy(RoutingGraph graph) {
+        this.graph = graph;
+        this.searchStates = new SearchStates(graph);
+        int n = graph.getNumVertices();
+
+        Builder builder = new Builder(graph);
+        builder.contractAll();
+
+        int[] rank = builder.rank;
+        numEdges = builder.numEdges;
+        edgeFrom = Arrays.copyOf(builder.from, numEdges);
+        edgeTo = Arrays.copyOf(builder.to, numEdges);
+        edgeChild1 = Arrays.copyOf(builder.child1, numEdges);
+        edgeChild2 = Arrays.copyOf(builder.child2, numEdges);
+        double[] weight = builder.weight;
+
+        upOffsets = new int[n + 1];
+        downOffsets = new int[n + 1];
+        for (int e = 0; e < numEdges; e++) {
+            if (rank[edgeFrom[e]] < rank[edgeTo[e]]) {
+                upOffsets[edgeFrom[e] + 1]++;
+            } else {
+                downOffsets[edgeTo[e] + 1]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            upOffsets[v + 1] += upOffsets[v];
+            downOffsets[v + 1] += downOffsets[v];
+        }
+        upTargets = new int[upOffsets[n]];
+        upWeights = new double[upOffsets[n]];
+        upEdges = new int[upOffsets[n]];
+        downSources = new int[downOffsets[n]];
+        downWeights = new double[downOffsets[n]];
+        downEdges = new int[downOffsets[n]];
+
+        int[] nextUp = Arrays.copyOf(upOffsets, n);
+        int[] nextDown = Arrays.copyOf(downOffsets, n);
+        for (int e = 0; e < numEdges; e++) {
+            int u = edgeFrom[e];
+            int w = edgeTo[e];
+            if (rank[u] < rank[w]) {
+                int i = nextUp[u]++;
+                upTargets[i] = w;
+                upWeights[i] = weight[e];
+                upEdges[i] = e;
+            } else {
+                int i = nextDown[w]++;
+                downSources[i] = u;
+                downWeights[i] = weight[e];
+                downEdges[i] = e;
+            }
+        }
+    }
+
+    public RoutingGraph getGraph() {
+        return graph;
+    }
+
+    /** Number of shortcut edges added by the contraction */
+    public int getNumShortcuts() {
+        return numEdges - graph.getNumEdges();
+    }
+
+    /** First upward edge slot of vertex v, an edge to a higher ranked vertex */
+    int firstUpEdge(int v) {
+        return upOffsets[v];
+    }
+
+    /** One past the last upward edge slot of vertex v */
+    int endUpEdge(int v) {
+        return upOffsets[v + 1];
+    }
+
+    int getUpTarget(int slot) {
+        return upTargets[slot];
+    }
+
+    double getUpWeight(int slot) {
+        return upWeights[slot];
+    }
+
+    /**
+     * First downward edge slot of vertex v: an edge into v from a higher
+     * ranked vertex, followed backwards
+     */
+    int firstDownEdge(int v) {
+        return downOffsets[v];
+    }
+
+    /** One past the last downward edge slot of vertex v */
+    int endDownEdge(int v) {
+        return downOffsets[v + 1];
+    }
+
+    int getDownSource(int slot) {
+        return downSources[slot];
+    }
+
+    double getDownWeight(int slot) {
+        return downWeights[slot];
+    }
+
+    /**
+     * Find the shortest path from start to goal.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal), or null if there is none.
+     */
+    public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal) {
+        if (start == null || goal == null) {
+            throw new IllegalArgumentException();
+        }
+        int source = graph.indexOf(start);
+        int target = graph.indexOf(goal);
+        if (source < 0 || target < 0) {
+            return null;
+        }
+        Query query = searchStates.contraction();
+        if (!query.search(this, source, target)) {
+            return null;
+        }
+        return query.buildPath(this, source);
+    }
+
+    /**
+     * Find the length of the shortest path from start to goal.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The road distance in km, or Double.POSITIVE_INFINITY if goal
+     * cannot be reached or either point is not a vertex.
+     */
+    public double distance(GeographicPoint start, GeographicPoint goal) {
+        if (start == null || goal == null) {
+            throw new IllegalArgumentException();
+        }
+        int source = graph.indexOf(start);
+        int target = graph.indexOf(goal);
+        if (source < 0 || target < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return distance(source, target);
+    }
+
+    /** Length of the shortest path between two vertex ids */
+    double distance(int source, int target) {
+        Query query = searchStates.contraction();
+        query.search(this, source, target);
+        return query.best;
+    }
+
+    /**
+     * Reusable per thread state for upward bidirectional queries. Labels are
+     * valid only when their stamp equals the current generation, so starting
+     * a query costs O(1) instead of clearing arrays of the graph size.
+     *
+     * A query is kept by SearchStates and is given the hierarchy with each
+     * call rather than holding on to it, so the per-thread entry does not
+     * keep the hierarchy, and with it its own key, reachable.
+     */
+    static final class Query {
+
+        private final double[] forwardDist;
+        private final double[] backwardDist;
+        private final int[] forwardEdge;
+        private final int[] backwardEdge;
+        private final int[] forwardStamp;
+        private final int[] backwardStamp;
+        private final IndexedMinHeap forwardQueue;
+        private final IndexedMinHeap backwardQueue;
+        private int generation;
+        private int[] unpackStack;
+
+        private double best;
+        private int meet;
+
+        Query(int n) {
+            forwardDist = new double[n];
+            backwardDist = new double[n];
+            forwardEdge = new int[n];
+            backwardEdge = new int[n];
+            forwardStamp = new int[n];
+            backwardStamp = new int[n];
+            forwardQueue = new IndexedMinHeap(n);
+            backwardQueue = new IndexedMinHeap(n);
+            generation = 0;
+            unpackStack = new int[32];
+        }
+
+        boolean search(ContractionHierarchy ch, int source, int target) {
+            int[] upOffsets = ch.upOffsets;
+            int[] upTargets = ch.upTargets;
+            double[] upWeights = ch.upWeights;
+            int[] upEdges = ch.upEdges;
+            int[] downOffsets = ch.downOffsets;
+            int[] downSources = ch.downSources;
+            double[] downWeights = ch.downWeights;
+            int[] downEdges = ch.downEdges;
+
+            if (++generation == 0) {
+                Arrays.fill(forwardStamp, 0);
+                Arrays.fill(backwardStamp, 0);
+                generation = 1;
+            }
+            forwardQueue.clear();
+            backwardQueue.clear();
+            int settled = 0;
+
+            forwardStamp[source] = generation;
+            forwardDist[source] = 0.0;
+            forwardEdge[source] = -1;
+            forwardQueue.push(source, 0.0);
+            backwardStamp[target] = generation;
+            backwardDist[target] = 0.0;
+            backwardEdge[target] = -1;
+            backwardQueue.push(target, 0.0);
+            best = Double.POSITIVE_INFINITY;
+            meet = -1;
+
+            while (true) {
+                boolean forward = !forwardQueue.isEmpty()
+                        && forwardQueue.peekKey() < best;
+                boolean backward = !backwardQueue.isEmpty()
+                        && backwardQueue.peekKey() < best;
+                if (!forward && !backward) {
+                    break;
+                }
+                if (forward && (!backward
+                        || forwardQueue.peekKey() <= backwardQueue.peekKey())) {
+                    int u = forwardQueue.poll();
+                    DijkstraSearch.checkInterrupted(++settled);
+                    double du = forwardDist[u];
+                    if (backwardStamp[u] == generation
+                            && du + backwardDist[u] < best) {
+                        best = du + backwardDist[u];
+                        meet = u;
+                    }
+                    for (int i = upOffsets[u]; i < upOffsets[u + 1]; i++) {
+                        int w = upTargets[i];
+                        double dw = du + upWeights[i];
+                        if (forwardStamp[w] != generation || dw < forwardDist[w]) {
+                            forwardStamp[w] = generation;
+                            forwardDist[w] = dw;
+                            forwardEdge[w] = upEdges[i];
+                            forwardQueue.push(w, dw);
+                        }
+                    }
+                } else {
+                    int u = backwardQueue.poll();
+                    DijkstraSearch.checkInterrupted(++settled);
+                    double du = backwardDist[u];
+                    if (forwardStamp[u] == generation
+                            && du + forwardDist[u] < best) {
+                        best = du + forwardDist[u];
+                        meet = u;
+                    }
+                    for (int i = downOffsets[u]; i < downOffsets[u + 1]; i++) {
+                        int w = downSources[i];
+                        double dw = du + downWeights[i];
+                        if (backwardStamp[w] != generation || dw < backwardDist[w]) {
+                            backwardStamp[w] = generation;
+                            backwardDist[w] = dw;
+                            backwardEdge[w] = downEdges[i];
+                            backwardQueue.push(w, dw);
+                        }
+                    }
+                }
+            }
+            return meet >= 0;
+        }
+
+        List<GeographicPoint> buildPath(ContractionHierarchy ch, int source) {
+            int[] edgeFrom = ch.edgeFrom;
+            int[] edgeTo = ch.edgeTo;
+            int count = 0;
+            for (int v = meet; forwardEdge[v] >= 0; v = edgeFrom[forwardEdge[v]]) {
+                count++;
+            }
+            int[] upward = new int[count];
+            for (int v = meet; forwardEdge[v] >= 0; v = edgeFrom[forwardEdge[v]]) {
+                upward[--count] = forwardEdge[v];
+            }
+
+            List<GeographicPoint> path = new ArrayList<>();
+            path.add(ch.graph.getPoint(source));
+            for (int e : upward) {
+                unpack(ch, e, path);
+            }
+            for (int v = meet; backwardEdge[v] >= 0; v = edgeTo[backwardEdge[v]]) {
+                unpack(ch, backwardEdge[v], path);
+            }
+            return path;
+        }
+
+        /**
+         * Append the vertices of a hierarchy edge, without its first vertex,
+         * by expanding shortcuts into the original edges they stand for.
+         */
+        private void unpack(ContractionHierarchy ch, int edge,
+                List<GeographicPoint> path) {
+            int[] edgeTo = ch.edgeTo;
+            int[] edgeChild1 = ch.edgeChild1;
+            int[] edgeChild2 = ch.edgeChild2;
+            int size = 0;
+            unpackStack[size++] = edge;
+            while (size > 0) {
+                int e = unpackStack[--size];
+                if (edgeChild1[e] < 0) {
+                    path.add(ch.graph.getPoint(edgeTo[e]));
+                } else {
+                    if (size + 2 > unpackStack.length) {
+                        unpackStack = Arrays.copyOf(unpackStack, unpackStack.length * 2);
+                    }
+                    // second half pushed first so the first is expanded first
+                    unpackStack[size++] = edgeChild2[e];
+                    unpackStack[size++] = edgeChild1[e];
+                }
+            }
+        }
+    }
+
+    /**
+     * The contraction itself, working on growable adjacency lists so
+     * shortcuts can be added as vertices are removed.
+     */
+    private static final class Builder {
+
+        private final int n;
+        private int numEdges;
+        private int[] from;
+        private int[] to;
+        private double[] weight;
+        private int[] child1;
+        private int[] child2;
+
+        private final int[][] out;
+        private final int[] outSize;
+        private final int[][] in;
+        private final int[] inSize;
+
+        private final boolean[] contracted;
+        private final int[] rank;
+        private final int[] deletedNeighbors;
+        private final int[] mark;
+
+        // witness search state
+        private final double[] dist;
+        private final int[] stamp;
+        private final IndexedMinHeap queue;
+        private int generation;
+
+        Builder(RoutingGraph graph) {
+            n = graph.getNumVertices();
+            int capacity = Math.max(16, graph.getNumEdges() * 2);
+            from = new int[capacity];
+            to = new int[capacity];
+            weight = new double[capacity];
+            child1 = new int[capacity];
+            child2 = new int[capacity];
+
+            out = new int[n][];
+            outSize = new int[n];
+            in = new int[n][];
+            inSize = new int[n];
+            for (int v = 0; v < n; v++) {
+                out[v] = new int[Math.max(2, graph.outDegree(v))];
+                in[v] = new int[Math.max(2, graph.inDegree(v))];
+            }
+
+            contracted = new boolean[n];
+            rank = new int[n];
+            deletedNeighbors = new int[n];
+            mark = new int[n];
+
+            dist = new double[n];
+            stamp = new int[n];
+            queue = new IndexedMinHeap(n);
+            generation = 0;
+
+            for (int v = 0; v < n; v++) {
+                for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                    addEdge(v, graph.getTarget(e), graph.getLength(e), -1, -1);
+                }
+            }
+        }
+
+        void contractAll() {
+            IndexedMinHeap order = new IndexedMinHeap(n);
+            for (int v = 0; v < n; v++) {
+                order.push(v, priority(v));
+            }
+
+            int next = 0;
+            while (!order.isEmpty()) {
+                int v = order.poll();
+                // Priorities go stale as neighbors are contracted, so check
+                // the chosen vertex again before contracting it.
+                double p = priority(v);
+                if (!order.isEmpty() && p > order.peekKey()) {
+                    order.push(v, p);
+                    continue;
+                }
+
+                shortcuts(v, true);
+                contracted[v] = true;
+                rank[v] = next++;
+
+                mark[v] = v + 1;
+                for (int i = 0; i < inSize[v]; i++) {
+                    neighborContracted(v, from[in[v][i]], order);
+                }
+                for (int i = 0; i < outSize[v]; i++) {
+                    neighborContracted(v, to[out[v][i]], order);
+                }
+            }
+        }
+
+        private void neighborContracted(int v, int x, IndexedMinHeap order) {
+            if (contracted[x] || mark[x] == v + 1) {
+                return;
+            }
+            mark[x] = v + 1;
+            deletedNeighbors[x]++;
+            order.update(x, priority(x));
+        }
+
+        private double priority(int v) {
+            int removed = 0;
+            for (int i = 0; i < inSize[v]; i++) {
+                if (!contracted[from[in[v][i]]]) {
+                    removed++;
+                }
+            }
+            for (int i = 0; i < outSize[v]; i++) {
+                if (!contracted[to[out[v][i]]]) {
+                    removed++;
+                }
+            }
+            return shortcuts(v, false) - removed + deletedNeighbors[v];
+        }
+
+        /**
+         * Count, and optionally add, the shortcuts needed to contract v.
+         */
+        private int shortcuts(int v, boolean add) {
+            int count = 0;
+            for (int i = 0; i < inSize[v]; i++) {
+                int inEdge = in[v][i];
+                int u = from[inEdge];
+                if (contracted[u]) {
+                    continue;
+                }
+
+                double limit = -1;
+                for (int j = 0; j < outSize[v]; j++) {
+                    int x = to[out[v][j]];
+                    if (!contracted[x] && x != u) {
+                        limit = Math.max(limit, weight[inEdge] + weight[out[v][j]]);
+                    }
+                }
+                if (limit < 0) {
+                    continue;
+                }
+
+                witnessSearch(u, v, limit);
+                for (int j = 0; j < outSize[v]; j++) {
+                    int outEdge = out[v][j];
+                    int x = to[outEdge];
+                    if (contracted[x] || x == u) {
+                        continue;
+                    }
+                    double via = weight[inEdge] + weight[outEdge];
+                    if (witnessDistance(x) > via) {
+                        count++;
+                        if (add) {
+                            addShortcut(u, x, via, inEdge, outEdge);
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+
+        /** Dijkstra from source that avoids skip and stops past limit */
+        private void witnessSearch(int source, int skip, double limit) {
+            generation++;
+            queue.clear();
+            stamp[source] = generation;
+            dist[source] = 0.0;
+            queue.push(source, 0.0);
+
+            int settled = 0;
+            while (!queue.isEmpty() && queue.peekKey() <= limit
+                    && settled++ < WITNESS_SETTLE_LIMIT) {
+                int u = queue.poll();
+                double du = dist[u];
+                for (int i = 0; i < outSize[u]; i++) {
+                    int e = out[u][i];
+                    int w = to[e];
+                    if (contracted[w] || w == skip) {
+                        continue;
+                    }
+                    double dw = du + weight[e];
+                    if (dw < witnessDistance(w)) {
+                        stamp[w] = generation;
+                        dist[w] = dw;
+                        queue.push(w, dw);
+                    }
+                }
+            }
+        }
+
+        private double witnessDistance(int v) {
+            return stamp[v] == generation ? dist[v] : Double.POSITIVE_INFINITY;
+        }
+
+        private void addShortcut(int u, int x, double w, int first, int second) {
+            // keep a single edge per pair of remaining vertices
+            for (int i = 0; i < outSize[u]; i++) {
+                int e = out[u][i];
+                if (to[e] == x) {
+                    if (w < weight[e]) {
+                        weight[e] = w;
+                        child1[e] = first;
+                        child2[e] = second;
+                    }
+                    return;
+                }
+            }
+            addEdge(u, x, w, first, second);
+        }
+
+        private void addEdge(int u, int w, double length, int first, int second) {
+            if (numEdges == from.length) {
+                int capacity = from.length * 2;
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                weight = Arrays.copyOf(weight, capacity);
+                child1 = Arrays.copyOf(child1, capacity);
+                child2 = Arrays.copyOf(child2, capacity);
+            }
+            int e = numEdges++;
+            from[e] = u;
+            to[e] = w;
+            weight[e] = length;
+            child1[e] = first;
+            child2[e] = second;
+
+            if (outSize[u] == out[u].length) {
+                out[u] = Arrays.copyOf(out[u], out[u].length * 2);
+            }
+            out[u][outSize[u]++] = e;
+            if (inSize[w] == in[w].length) {
+                in[w] = Arrays.copyOf(in[w], in[w].length * 2);
+            }
+            in[w][inSize[w]++] = e;
+        }
+    }
+
+}
@@ -0,0 +1,378 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+/**
+ * Point to point Dijkstra and A* over a RoutingGraph. Distances and parents
+ * are kept in primitive arrays indexed by vertex id and the frontier is an
+ * IndexedMinHeap, so a search allocates nothing per edge relaxation. A* is
+ * Dijkstra with the frontier ordered by distance plus a Heuristic.
+ *
+ * Labels are valid only when their stamp equals the current generation, so
+ * starting a search costs O(1) instead of clearing arrays of the graph size
+ * and an instance can be reused for many searches.
+ *
+ * Searches poll the interrupt flag of their thread every few thousand
+ * settled vertices and give up with a CancellationException when it is set,
+ * so a caller can abandon a search that runs too long.
+ *
+ * An instance holds mutable search state and must not be shared between
+ * threads.
+ *
+ * @author imdaz
+ */
+class DijkstraSearch {
+
+    // parent value of a target searchMany has not settled yet
+    private static final int PENDING = -2;
+
+    // settled vertices between checks of the interrupt flag, a power of two
+    static final int INTERRUPT_CHECK_INTERVAL = 4096;
+
+    private RoutingGraph graph;
+    private final double[] dist;
+    private final int[] parent;
+    private final int[] stamp;
+    private final IndexedMinHeap queue;
+    private int generation;
+
+    DijkstraSearch(RoutingGraph graph) {
+        this.graph = graph;
+        int n = graph.getNumVertices();
+        dist = new double[n];
+        parent = new int[n];
+        stamp = new int[n];
+        queue = new IndexedMinHeap(n);
+        generation = 0;
+    }
+
+    /**
+     * Search another graph with the same vertices and edges from now on,
+     * such as another weighting of the same roads.
+     *
+     * @param graph The graph to search
+     */
+    void bind(RoutingGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Abandon a search whose thread was interrupted. The interrupt flag is
+     * left set for the caller.
+     *
+     * @param settled The number of vertices settled so far
+     */
+    static void checkInterrupted(int settled) {
+        if ((settled & (INTERRUPT_CHECK_INTERVAL - 1)) == 0
+                && Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Search interrupted");
+        }
+    }
+
+    // Invalidate the labels of the previous search
+    private void reset() {
+        if (++generation == 0) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+        queue.clear();
+    }
+
+    /**
+     * Run the search until the target is settled or the frontier is empty.
+     *
+     * @param source The id of the start vertex
+     * @param target The id of the goal vertex, or -1 to settle every vertex
+     * reachable from the source
+     * @param heuristic Lower bound on the distance to the target, or
+     * Heuristic.NONE for plain Dijkstra
+     * @param nodeSearched Called with the location of every settled vertex
+     * @return true if the target is reachable from the source
+     */
+    boolean search(int source, int target, Heuristic heuristic,
+            Consumer<GeographicPoint> nodeSearched) {
+        reset();
+
+        stamp[source] = generation;
+        dist[source] = 0.0;
+        parent[source] = -1;
+        queue.push(source, heuristic.estimate(source));
+
+        int settled = 0;
+        while (!queue.isEmpty()) {
+            int u = queue.poll();
+            checkInterrupted(++settled);
+
+            // Hook for visualization.
+            nodeSearched.accept(graph.getPoint(u));
+
+            if (u == target) {
+                return true;
+            }
+
+            double du = dist[u];
+            for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                int w = graph.getTarget(e);
+                double dw = du + graph.getLength(e);
+                if (stamp[w] != generation || dw < dist[w]) {
+                    stamp[w] = generation;
+                    dist[w] = dw;
+                    parent[w] = u;
+                    queue.push(w, dw + heuristic.estimate(w));
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run Dijkstra's algorithm with edge lengths scaled by per edge factors,
+     * until the target is settled or the frontier is empty. Distances found
+     * are in scaled lengths.
+     *
+     * @param source The id of the start vertex
+     * @param target The id of the goal vertex
+     * @param factor factor[e] multiplies the length of edge e, at least 1;
+     * Double.POSITIVE_INFINITY leaves the edge out
+     * @return true if the target is reachable from the source
+     */
+    boolean search(int source, int target, double[] factor) {
+        reset();
+
+        stamp[source] = generation;
+        dist[source] = 0.0;
+        parent[source] = -1;
+        queue.push(source, 0.0);
+
+        int settled = 0;
+        while (!queue.isEmpty()) {
+            int u = queue.poll();
+            checkInterrupted(++settled);
+            if (u == target) {
+                return true;
+            }
+
+            double du = dist[u];
+            for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                if (factor[e] == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                int w = graph.getTarget(e);
+                double dw = du + graph.getLength(e) * factor[e];
+                if (stamp[w] != generation || dw < dist[w]) {
+                    stamp[w] = generation;
+                    dist[w] = dw;
+                    parent[w] = u;
+                    queue.push(w, dw);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the distances from a source to many targets with one search,
+     * stopping as soon as every target is settled.
+     *
+     * @param source The id of the start vertex
+     * @param targets The ids of the targets, -1 for points not in the graph
+     * @param result Receives the distance to each target, or
+     * Double.POSITIVE_INFINITY if it cannot be reached
+     */
+    void searchMany(int source, int[] targets, double[] result) {
+        reset();
+
+        // parent is reused to mark targets still waiting to be settled
+        int remaining = 0;
+        for (int t : targets) {
+            if (t >= 0 && stamp[t] != generation) {
+                stamp[t] = generation;
+                dist[t] = Double.POSITIVE_INFINITY;
+                parent[t] = PENDING;
+                remaining++;
+            }
+        }
+
+        if (stamp[source] != generation) {
+            stamp[source] = generation;
+            parent[source] = -1;
+        }
+        dist[source] = 0.0;
+        queue.push(source, 0.0);
+
+        int settled = 0;
+        while (remaining > 0 && !queue.isEmpty()) {
+            int u = queue.poll();
+            checkInterrupted(++settled);
+            if (parent[u] == PENDING) {
+                parent[u] = -1;
+                remaining--;
+            }
+
+            double du = dist[u];
+            for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                int w = graph.getTarget(e);
+                double dw = du + graph.getLength(e);
+                if (stamp[w] != generation) {
+                    stamp[w] = generation;
+                    parent[w] = -1;
+                    dist[w] = dw;
+                    queue.push(w, dw);
+                } else if (dw < dist[w]) {
+                    dist[w] = dw;
+                    queue.push(w, dw);
+                }
+            }
+        }
+
+        for (int i = 0; i < targets.length; i++) {
+            result[i] = targets[i] < 0 ? Double.POSITIVE_INFINITY
+                    : getDistance(targets[i]);
+        }
+    }
+
+    /**
+     * Settle the vertices within a distance of the source, closest first.
+     *
+     * @param source The id of the start vertex
+     * @param limit The largest distance to settle, in km
+     * @param settledOut Receives the ids of the settled vertices in the
+     * order they were settled; must have room for every vertex
+     * @param distOut Receives the distance of each settled vertex
+     * @return The number of vertices settled
+     */
+    int searchWithin(int source, double limit, int[] settledOut, double[] distOut) {
+        reset();
+
+        stamp[source] = generation;
+        dist[source] = 0.0;
+        parent[source] = -1;
+        queue.push(source, 0.0);
+
+        int settled = 0;
+        while (!queue.isEmpty() && queue.peekKey() <= limit) {
+            int u = queue.poll();
+            settledOut[settled] = u;
+            distOut[settled] = dist[u];
+            checkInterrupted(++settled);
+
+            double du = dist[u];
+            for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                int w = graph.getTarget(e);
+                double dw = du + graph.getLength(e);
+                if (stamp[w] != generation || dw < dist[w]) {
+                    stamp[w] = generation;
+                    dist[w] = dw;
+                    parent[w] = u;
+                    queue.push(w, dw);
+                }
+            }
+        }
+        return settled;
+    }
+
+    /**
+     * Settle every vertex that can reach the source, following edges
+     * backwards. Afterwards getDistance(v) is the distance from v to the
+     * source.
+     *
+     * @param source The id of the vertex distances are measured to
+     */
+    void searchReverse(int source) {
+        reset();
+
+        stamp[source] = generation;
+        dist[source] = 0.0;
+        parent[source] = -1;
+        queue.push(source, 0.0);
+
+        int settled = 0;
+        while (!queue.isEmpty()) {
+            int u = queue.poll();
+            checkInterrupted(++settled);
+            double du = dist[u];
+            for (int i = graph.firstInEdge(u), end = graph.endInEdge(u); i < end; i++) {
+                int w = graph.getInSource(i);
+                double dw = du + graph.getLength(graph.getInEdge(i));
+                if (stamp[w] != generation || dw < dist[w]) {
+                    stamp[w] = generation;
+                    dist[w] = dw;
+                    parent[w] = u;
+                    queue.push(w, dw);
+                }
+            }
+        }
+    }
+
+    /**
+     * Settle every vertex reachable from the source and copy the labels out
+     * into a tree that outlives this search.
+     *
+     * @param source The id of the root
+     * @return The shortest path tree of the source
+     */
+    ShortestPathTree searchTree(int source) {
+        search(source, -1, Heuristic.NONE, (x) -> {
+        });
+
+        int n = dist.length;
+        double[] treeDist = new double[n];
+        int[] treeParent = new int[n];
+        for (int v = 0; v < n; v++) {
+            if (stamp[v] == generation) {
+                treeDist[v] = dist[v];
+                treeParent[v] = parent[v];
+            } else {
+                treeDist[v] = Double.POSITIVE_INFINITY;
+                treeParent[v] = -1;
+            }
+        }
+        return new ShortestPathTree(graph, source, treeDist, treeParent);
+    }
+
+    /** Distance to a vertex found by the last search */
+    double getDistance(int v) {
+        return stamp[v] == generation ? dist[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Walk the parent array back from a settled target.
+     *
+     * @return The locations from the source to the target, inclusive
+     */
+    List<GeographicPoint> buildPath(int target) {
+        List<GeographicPoint> result = new ArrayList<>();
+        for (int v = target; v >= 0; v = parent[v]) {
+            result.add(graph.getPoint(v));
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Walk the parent array back from a settled target.
+     *
+     * @return The vertex ids from the source to the target, inclusive
+     */
+    int[] buildIdPath(int target) {
+        int count = 0;
+        for (int v = target; v >= 0; v = parent[v]) {
+            count++;
+        }
+        int[] result = new int[count];
+        for (int v = target; v >= 0; v = parent[v]) {
+            result[--count] = v;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * Fills rows of a many-to-many distance matrix on a fork-join pool. The
+ * range of source rows is split in halves until it is small, then each leaf
+ * runs one Dijkstra per source with the DijkstraSearch of its worker thread.
+ *
+ * @author imdaz
+ */
+class DistanceMatrixTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    // sources per leaf task
+    private static final int THRESHOLD = 4;
+
+    private final Supplier<DijkstraSearch> searches;
+    private final int[] sources;
+    private final int[] targets;
+    private final double[][] result;
+    private final int from;
+    private final int to;
+
+    DistanceMatrixTask(Supplier<DijkstraSearch> searches, int[] sources,
+            int[] targets, double[][] result, int from, int to) {
+        this.searches = searches;
+        this.sources = sources;
+        this.targets = targets;
+        this.result = result;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > THRESHOLD) {
+            int mid = (from + to) >>> 1;
+            invokeAll(new DistanceMatrixTask(searches, sources, targets, result, from, mid),
+                    new DistanceMatrixTask(searches, sources, targets, result, mid, to));
+            return;
+        }
+
+        DijkstraSearch search = searches.get();
+        for (int i = from; i < to; i++) {
+            result[i] = new double[targets.length];
+            if (sources[i] < 0) {
+                Arrays.fill(result[i], Double.POSITIVE_INFINITY);
+            } else {
+                search.searchMany(sources[i], targets, result[i]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Point to point Dijkstra and A* that honour banned turns and charge turn
+ * costs. The search state is the edge a vertex was entered by, so labels
+ * are kept per edge id; the turns out of an edge are the outgoing edges of
+ * its target, filtered and priced by TurnCosts as they are relaxed. The
+ * edge based graph is thus implicit and costs nothing to keep.
+ *
+ * Labels are stamped with a generation like those of DijkstraSearch, so an
+ * instance can be reused for many searches. It holds mutable search state
+ * and must not be shared between threads.
+ *
+ * @author imdaz
+ */
+class EdgeBasedSearch {
+
+    private RoutingGraph graph;
+    private final double[] dist;
+    private final int[] parent;
+    private final int[] stamp;
+    private final IndexedMinHeap queue;
+    private int generation;
+    private int lastSource;
+    private int lastEdge;
+
+    EdgeBasedSearch(RoutingGraph graph) {
+        this.graph = graph;
+        int m = graph.getNumEdges();
+        dist = new double[m];
+        parent = new int[m];
+        stamp = new int[m];
+        queue = new IndexedMinHeap(m);
+        generation = 0;
+    }
+
+    /**
+     * Search another graph with the same vertices and edges from now on,
+     * such as another weighting of the same roads.
+     *
+     * @param graph The graph to search
+     */
+    void bind(RoutingGraph graph) {
+        this.graph = graph;
+    }
+
+    // Invalidate the labels of the previous search
+    private void reset() {
+        if (++generation == 0) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+        queue.clear();
+    }
+
+    /**
+     * Run the search until an edge into the target is settled or the
+     * frontier is empty. The first edge settled into the target ends the
+     * cheapest route, since turns are only paid for when leaving a vertex.
+     *
+     * @param source The id of the start vertex; any road out of it may be
+     * taken
+     * @param target The id of the goal vertex, not the source
+     * @param turns The banned turns and turn costs
+     * @param heuristic Lower bound on the distance to the target, or
+     * Heuristic.NONE for plain Dijkstra
+     * @param nodeSearched Called with the target location of every settled
+     * edge
+     * @return true if the target is reachable from the source
+     */
+    boolean search(int source, int target, TurnCosts turns, Heuristic heuristic,
+            Consumer<GeographicPoint> nodeSearched) {
+        reset();
+        lastSource = source;
+        lastEdge = -1;
+
+        for (int e = graph.firstEdge(source), end = graph.endEdge(source); e < end; e++) {
+            double de = graph.getLength(e);
+            if (stamp[e] != generation || de < dist[e]) {
+                stamp[e] = generation;
+                dist[e] = de;
+                parent[e] = -1;
+                queue.push(e, de + heuristic.estimate(graph.getTarget(e)));
+            }
+        }
+
+        int settled = 0;
+        while (!queue.isEmpty()) {
+            int in = queue.poll();
+            DijkstraSearch.checkInterrupted(++settled);
+            int v = graph.getTarget(in);
+
+            // Hook for visualization.
+            nodeSearched.accept(graph.getPoint(v));
+
+            if (v == target) {
+                lastEdge = in;
+                return true;
+            }
+
+            double din = dist[in];
+            for (int out = graph.firstEdge(v), end = graph.endEdge(v); out < end; out++) {
+                if (turns.isBanned(v, in, out)) {
+                    continue;
+                }
+                double dout = din + turns.cost(v, in, out) + graph.getLength(out);
+                if (dout == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                if (stamp[out] != generation || dout < dist[out]) {
+                    stamp[out] = generation;
+                    dist[out] = dout;
+                    parent[out] = in;
+                    queue.push(out, dout + heuristic.estimate(graph.getTarget(out)));
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Cost of the route found by the last successful search, turns included */
+    double getCost() {
+        return dist[lastEdge];
+    }
+
+    /**
+     * Walk the parent edges back from the last edge of the route.
+     *
+     * @return The locations from the source to the target, inclusive
+     */
+    List<GeographicPoint> buildPath() {
+        List<GeographicPoint> result = new ArrayList<>();
+        for (int e = lastEdge; e >= 0; e = parent[e]) {
+            result.add(graph.getPoint(graph.getTarget(e)));
+        }
+        result.add(graph.getPoint(lastSource));
+        Collections.reverse(result);
+        return result;
+    }
+
+}
@@ -0,0 +1,565 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * An immutable view of a road graph for routing from many threads at once.
+ *
+ * The view holds a RoutingGraph and the heuristic factory in effect when it
+ * was made, neither of which changes afterwards. Each thread that queries it
+ * gets its own search state on first use and keeps reusing it, also for
+ * other views of the same roads (see SearchStates); labels are reset by
+ * bumping a generation counter, so after warm up a query allocates only its
+ * result path. Threads share nothing mutable, so throughput grows with the
+ * number of cores.
+ *
+ * Get one from MapGraph.freeze(), or wrap a MappedGraph directly.
+ *
+ * @author imdaz
+ */
+public final class FrozenMapGraph {
+
+    // shortest path trees kept for reuse; each holds 12 bytes per vertex
+    private static final int TREE_CACHE_SIZE = 4;
+
+    /** Default share of a route's length alternativeRoutes lets it reuse */
+    public static final double DEFAULT_MAX_OVERLAP = 0.5;
+
+    /** Default extra length of an alternative route over the shortest one */
+    public static final double DEFAULT_MAX_STRETCH = 0.3;
+
+    private final RoutingGraph graph;
+    private final HeuristicFactory heuristicFactory;
+    private final SearchStates searchStates;
+    private final Map<Integer, ShortestPathTree> trees;
+
+    /**
+     * Create a view of a graph.
+     *
+     * @param graph The graph to search; it must not change afterwards
+     * @param heuristicFactory Creates the heuristics for the A* searches
+     */
+    public FrozenMapGraph(RoutingGraph graph, HeuristicFactory heuristicFactory) {
+        this(graph, heuristicFactory, graph == null ? null : new SearchStates(graph));
+    }
+
+    /**
+     * Create a view that shares search state with other views of the same
+     * roads.
+     *
+     * @param graph The graph to search; it must not change afterwards
+     * @param heuristicFactory Creates the heuristics for the A* searches
+     * @param searchStates The search state of the graph's topology
+     */
+    FrozenMapGraph(RoutingGraph graph, HeuristicFactory heuristicFactory,
+            SearchStates searchStates) {
+        if (graph == null || heuristicFactory == null || searchStates == null) {
+            throw new IllegalArgumentException();
+        }
+        if (!searchStates.fits(graph)) {
+            throw new IllegalArgumentException("Search states are for another graph");
+        }
+        this.graph = graph;
+        this.heuristicFactory = heuristicFactory;
+        this.searchStates = searchStates;
+        trees = new LinkedHashMap<Integer, ShortestPathTree>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Integer, ShortestPathTree> eldest) {
+                return size() > TREE_CACHE_SIZE;
+            }
+        };
+    }
+
+    public RoutingGraph getGraph() {
+        return graph;
+    }
+
+    public HeuristicFactory getHeuristicFactory() {
+        return heuristicFactory;
+    }
+
+    /**
+     * Find the path from start to goal using breadth first search
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest (unweighted)
+     * path from start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bfs(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {
+        };
+        return bfs(start, goal, temp);
+    }
+
+    /**
+     * Find the path from start to goal using breadth first search
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization, called on the calling
+     * thread for every dequeued vertex.
+     * @return The list of intersections that form the shortest (unweighted)
+     * path from start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bfs(GeographicPoint start, GeographicPoint goal,
+            Consumer<GeographicPoint> nodeSearched) {
+
+        if (start == null || goal == null) {
+            throw new IllegalArgumentException();
+        }
+
+        if (start.equals(goal)) {
+            List<GeographicPoint> result = new ArrayList<>();
+            result.add(goal);
+            return result;
+        }
+
+        int source = graph.indexOf(start);
+        int target = graph.indexOf(goal);
+        if (source < 0) {
+            return null;
+        }
+
+        // a goal outside the graph is never found, but the hook still sees
+        // every vertex reachable from start
+        BreadthFirstSearch search = searchStates.breadthFirst(graph);
+        if (!search.search(source, target, nodeSearched)) {
+            return null;
+        }
+        return search.buildPath(target);
+    }
+
+    /**
+     * Find the path from start to goal using Dijkstra's algorithm. If the
+     * shortest path tree of start is among the last few built by
+     * shortestPathTree, the path is read from it instead of searching.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal) {
+        if (start == null || goal == null) {
+            throw new IllegalArgumentException();
+        }
+        ShortestPathTree tree;
+        synchronized (trees) {
+            tree = trees.get(graph.indexOf(start));
+        }
+        if (tree != null) {
+            return tree.pathTo(goal);
+        }
+        Consumer<GeographicPoint> temp = (x) -> {
+        };
+        return dijkstra(start, goal, temp);
+    }
+
+    /**
+     * Find the path from start to goal using Dijkstra's algorithm
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization, called on the calling
+     * thread for every settled vertex.
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> dijkstra(GeographicPoint start,
+            GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+        return search(start, goal, false, nodeSearched);
+    }
+
+    /**
+     * Find the shortest paths from a source to every vertex with one
+     * Dijkstra search. The last few trees are kept, so asking again for the
+     * same source, or calling dijkstra(source, goal), is a lookup.
+     *
+     * @param source The starting location
+     * @return The shortest path tree of source, or null if it is not in the
+     * graph
+     */
+    public ShortestPathTree shortestPathTree(GeographicPoint source) {
+        if (source == null) {
+            throw new IllegalArgumentException();
+        }
+        int root = graph.indexOf(source);
+        if (root < 0) {
+            return null;
+        }
+        synchronized (trees) {
+            ShortestPathTree tree = trees.get(root);
+            if (tree != null) {
+                return tree;
+            }
+        }
+        // built outside the lock; two threads may build the same tree, but
+        // either copy is correct
+        ShortestPathTree tree = searchStates.dijkstra(graph).searchTree(root);
+        synchronized (trees) {
+            trees.put(root, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Find what can be reached from a source within distance budgets, for
+     * example 5, 10 and 15 km. One search serves every budget.
+     *
+     * @param source The starting location
+     * @param budgets The distances in km, in any order
+     * @return The reachable part of the graph for each budget, or null if
+     * source is not in the graph
+     */
+    public Isochrone isochrone(GeographicPoint source, double... budgets) {
+        if (source == null || budgets == null || budgets.length == 0) {
+            throw new IllegalArgumentException();
+        }
+        double[] sorted = budgets.clone();
+        Arrays.sort(sorted);
+        if (!(sorted[0] >= 0) || Double.isNaN(sorted[sorted.length - 1])) {
+            throw new IllegalArgumentException("Budgets must not be negative");
+        }
+
+        int root = graph.indexOf(source);
+        if (root < 0) {
+            return null;
+        }
+        int[] settled = new int[graph.getNumVertices()];
+        double[] dist = new double[settled.length];
+        int count = searchStates.dijkstra(graph).searchWithin(root,
+                sorted[sorted.length - 1], settled, dist);
+        return new Isochrone(graph, root, sorted, Arrays.copyOf(settled, count),
+                Arrays.copyOf(dist, count), count);
+    }
+
+    /**
+     * Find the path from start to goal using A-Star search
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {
+        };
+        return aStarSearch(start, goal, temp);
+    }
+
+    /**
+     * Find the path from start to goal using A-Star search
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization, called on the calling
+     * thread for every settled vertex.
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> aStarSearch(GeographicPoint start,
+            GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+        return search(start, goal, true, nodeSearched);
+    }
+
+    /**
+     * Find the cheapest path from start to goal using Dijkstra's algorithm
+     * on road edges instead of intersections, so that banned turns are never
+     * taken and every turn adds its cost to the length of the route.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param turns The banned turns and turn costs; must have been made for
+     * the graph of this view
+     * @return The list of intersections that form the cheapest path from
+     * start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> dijkstraWithTurns(GeographicPoint start,
+            GeographicPoint goal, TurnCosts turns) {
+        return searchWithTurns(start, goal, turns, false);
+    }
+
+    /**
+     * Find the cheapest path from start to goal honouring banned turns and
+     * turn costs, using A-Star search on road edges. Turn costs are never
+     * negative, so the heuristic still never overestimates.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param turns The banned turns and turn costs; must have been made for
+     * the graph of this view
+     * @return The list of intersections that form the cheapest path from
+     * start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> aStarSearchWithTurns(GeographicPoint start,
+            GeographicPoint goal, TurnCosts turns) {
+        return searchWithTurns(start, goal, turns, true);
+    }
+
+    /**
+     * Find the path from start to goal using Dijkstra's algorithm run from
+     * both ends at once.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start,
+            GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {
+        };
+        return bidirectionalDijkstra(start, goal, temp);
+    }
+
+    /**
+     * Find the path from start to goal using Dijkstra's algorithm run from
+     * both ends at once.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization, called for vertices
+     * settled by either direction.
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start,
+            GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+        return bidirectionalSearch(start, goal, false, nodeSearched);
+    }
+
+    /**
+     * Find the path from start to goal using A-Star search run from both
+     * ends at once.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalAStarSearch(GeographicPoint start,
+            GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {
+        };
+        return bidirectionalAStarSearch(start, goal, temp);
+    }
+
+    /**
+     * Find the path from start to goal using A-Star search run from both
+     * ends at once.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization, called for vertices
+     * settled by either direction.
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalAStarSearch(GeographicPoint start,
+            GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+        return bidirectionalSearch(start, goal, true, nodeSearched);
+    }
+
+    /**
+     * Find the k shortest loopless paths from start to goal with Yen's
+     * algorithm. Each path after the first costs about one search per
+     * vertex of the path before it, so keep k small.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param k The number of paths wanted
+     * @return Up to k routes, shortest first; empty if there is no path or
+     * either point is not in the graph
+     */
+    public List<Route> kShortestPaths(GeographicPoint start, GeographicPoint goal,
+            int k) {
+        if (start == null || goal == null || k < 0) {
+            throw new IllegalArgumentException();
+        }
+        int source = graph.indexOf(start);
+        int target = graph.indexOf(goal);
+        if (source < 0 || target < 0) {
+            return new ArrayList<>();
+        }
+        return new AlternativeRoutes(graph, searchStates.dijkstra(graph))
+                .kShortest(source, target, k);
+    }
+
+    /**
+     * Find alternative routes from start to goal, each sharing at most half
+     * its length with another and none more than 30% longer than the
+     * shortest.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param max The number of routes wanted
+     * @return Up to max routes, the shortest first
+     */
+    public List<Route> alternativeRoutes(GeographicPoint start,
+            GeographicPoint goal, int max) {
+        return alternativeRoutes(start, goal, max, DEFAULT_MAX_OVERLAP,
+                DEFAULT_MAX_STRETCH);
+    }
+
+    /**
+     * Find alternative routes from start to goal. After each route found the
+     * lengths of its edges are raised and the search is repeated, which is
+     * much cheaper than kShortestPaths and gives routes that differ more.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param max The number of routes wanted
+     * @param maxOverlap The largest part of a route's length it may share
+     * with any route before it, from 0 to 1
+     * @param maxStretch How much longer than the shortest route another may
+     * be, 0.25 for 25%
+     * @return Up to max routes, the shortest first; empty if there is no
+     * path or either point is not in the graph
+     */
+    public List<Route> alternativeRoutes(GeographicPoint start,
+            GeographicPoint goal, int max, double maxOverlap, double maxStretch) {
+        if (start == null || goal == null || max < 0 || maxOverlap < 0
+                || maxStretch < 0) {
+            throw new IllegalArgumentException();
+        }
+        int source = graph.indexOf(start);
+        int target = graph.indexOf(goal);
+        if (source < 0 || target < 0) {
+            return new ArrayList<>();
+        }
+        return new AlternativeRoutes(graph, searchStates.dijkstra(graph))
+                .penalized(source, target, max, maxOverlap, maxStretch);
+    }
+
+    /**
+     * Find the road distances between every source and every target. One
+     * Dijkstra runs per source and stops once all targets are settled; the
+     * sources are spread over the common fork-join pool.
+     *
+     * @param sources The starting locations, one row each
+     * @param targets The goal locations, one column each
+     * @return result[i][j] is the distance in km from sources[i] to
+     * targets[j], or Double.POSITIVE_INFINITY if there is no path or either
+     * point is not in the graph.
+     */
+    public double[][] distanceMatrix(List<GeographicPoint> sources,
+            List<GeographicPoint> targets) {
+
+        if (sources == null || targets == null) {
+            throw new IllegalArgumentException();
+        }
+
+        int[] sourceIds = new int[sources.size()];
+        for (int i = 0; i < sourceIds.length; i++) {
+            sourceIds[i] = graph.indexOf(sources.get(i));
+        }
+        int[] targetIds = new int[targets.size()];
+        for (int j = 0; j < targetIds.length; j++) {
+            targetIds[j] = graph.indexOf(targets.get(j));
+        }
+
+        double[][] result = new double[sourceIds.length][];
+        ForkJoinPool.commonPool().invoke(new DistanceMatrixTask(
+                () -> searchStates.dijkstra(graph), sourceIds, targetIds,
+                result, 0, sourceIds.length));
+        return result;
+    }
+
+    private List<GeographicPoint> search(GeographicPoint start,
+            GeographicPoint goal, boolean useHeuristic,
+            Consumer<GeographicPoint> nodeSearched) {
+
+        if (start == null || goal == null) {
+            throw new IllegalArgumentException();
+        }
+
+        int source = graph.indexOf(start);
+        int target = graph.indexOf(goal);
+        if (source < 0 || target < 0) {
+            return null;
+        }
+
+        Heuristic heuristic = useHeuristic
+                ? heuristicFactory.toGoal(graph, target) : Heuristic.NONE;
+        DijkstraSearch search = searchStates.dijkstra(graph);
+        if (!search.search(source, target, heuristic, nodeSearched)) {
+            return null;
+        }
+        return search.buildPath(target);
+    }
+
+    private List<GeographicPoint> searchWithTurns(GeographicPoint start,
+            GeographicPoint goal, TurnCosts turns, boolean useHeuristic) {
+
+        if (start == null || goal == null || turns == null) {
+            throw new IllegalArgumentException();
+        }
+        if (turns.getGraph() != graph) {
+            throw new IllegalArgumentException(
+                    "Turn costs were made for another graph");
+        }
+
+        int source = graph.indexOf(start);
+        int target = graph.indexOf(goal);
+        if (source < 0 || target < 0) {
+            return null;
+        }
+        if (source == target) {
+            List<GeographicPoint> result = new ArrayList<>();
+            result.add(goal);
+            return result;
+        }
+
+        Heuristic heuristic = useHeuristic
+                ? heuristicFactory.toGoal(graph, target) : Heuristic.NONE;
+        EdgeBasedSearch search = searchStates.edgeBased(graph);
+        if (!search.search(source, target, turns, heuristic, (x) -> {
+        })) {
+            return null;
+        }
+        return search.buildPath();
+    }
+
+    private List<GeographicPoint> bidirectionalSearch(GeographicPoint start,
+            GeographicPoint goal, boolean useHeuristic,
+            Consumer<GeographicPoint> nodeSearched) {
+
+        if (start == null || goal == null) {
+            throw new IllegalArgumentException();
+        }
+
+        int source = graph.indexOf(start);
+        int target = graph.indexOf(goal);
+        if (source < 0 || target < 0) {
+            return null;
+        }
+
+        Heuristic toTarget = Heuristic.NONE;
+        Heuristic fromSource = Heuristic.NONE;
+        if (useHeuristic) {
+            toTarget = heuristicFactory.toGoal(graph, target);
+            fromSource = heuristicFactory.fromSource(graph, source);
+        }
+
+        BidirectionalSearch search = searchStates.bidirectional(graph);
+        if (!search.search(source, target, toTarget, fromSource, nodeSearched)) {
+            return null;
+        }
+        return search.buildPath();
+    }
+
+}
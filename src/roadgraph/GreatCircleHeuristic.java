@@ -0,0 +1,45 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+/**
+ * The great circle (haversine) distance to the goal, which is what
+ * GeographicPoint.distance returns and so never exceeds a road distance.
+ * The goal latitude, longitude and the cosine of its latitude are converted
+ * to radians once per search instead of on every heap push.
+ *
+ * @author imdaz
+ */
+public final class GreatCircleHeuristic implements Heuristic {
+
+    /** Creates a GreatCircleHeuristic for each goal */
+    public static final HeuristicFactory FACTORY = GreatCircleHeuristic::new;
+
+    // radius of the earth in kilometres, as in GeographicPoint
+    private static final double R = 6373;
+
+    private final RoutingGraph graph;
+    private final double goalLat;
+    private final double goalLon;
+    private final double cosGoalLat;
+
+    public GreatCircleHeuristic(RoutingGraph graph, int goal) {
+        this.graph = graph;
+        this.goalLat = Math.toRadians(graph.getLatitude(goal));
+        this.goalLon = Math.toRadians(graph.getLongitude(goal));
+        this.cosGoalLat = Math.cos(goalLat);
+    }
+
+    @Override
+    public double estimate(int v) {
+        double lat = Math.toRadians(graph.getLatitude(v));
+        double lon = Math.toRadians(graph.getLongitude(v));
+        double sinLat = Math.sin((goalLat - lat) / 2);
+        double sinLon = Math.sin((goalLon - lon) / 2);
+        double a = sinLat * sinLat
+                + Math.cos(lat) * cosGoalLat * sinLon * sinLon;
+        return 2 * R * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+}
@@ -0,0 +1,26 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+/**
+ * A lower bound on the remaining distance from a vertex to the goal of an
+ * A* search. Implementations are created per goal by a HeuristicFactory and
+ * must never overestimate, or the search may return a longer path.
+ *
+ * @author imdaz
+ */
+public interface Heuristic {
+
+    /** The heuristic that knows nothing, which turns A* into Dijkstra */
+    Heuristic NONE = v -> 0.0;
+
+    /**
+     * Estimate the remaining distance to the goal.
+     *
+     * @param v The id of a vertex in the graph being searched
+     * @return A lower bound, in km, on the distance from v to the goal
+     */
+    double estimate(int v);
+
+}
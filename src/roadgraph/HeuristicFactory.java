@@ -0,0 +1,63 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+/**
+ * Creates the A* heuristic for one goal. This is the extension point for
+ * plugging cheaper approximations or precomputed bounds into
+ * MapGraph.aStarSearch.
+ *
+ * @author imdaz
+ */
+public interface HeuristicFactory {
+
+    /**
+     * Create a heuristic bounding the distance to a goal.
+     *
+     * @param graph The graph being searched
+     * @param goal The id of the goal vertex
+     * @return The heuristic for searches towards goal
+     */
+    Heuristic toGoal(RoutingGraph graph, int goal);
+
+    /**
+     * Create a heuristic bounding the distance from a source, for the
+     * backward half of a bidirectional search. The default assumes the bound
+     * is symmetric, as great circle distance is.
+     *
+     * @param graph The graph being searched
+     * @param source The id of the source vertex
+     * @return The heuristic for backward searches towards source
+     */
+    default Heuristic fromSource(RoutingGraph graph, int source) {
+        return toGoal(graph, source);
+    }
+
+    /**
+     * Make a factory whose heuristics are those of this one multiplied by a
+     * factor, for searching a graph whose lengths are costs. The factor is
+     * lowered by a millionth to absorb the rounding of float weights.
+     *
+     * @param factor The least cost of a km, at most 1 for lengths in km
+     * @return The scaled factory
+     */
+    default HeuristicFactory scaled(double factor) {
+        double f = factor * (1 - 1e-6);
+        HeuristicFactory unscaled = this;
+        return new HeuristicFactory() {
+            @Override
+            public Heuristic toGoal(RoutingGraph graph, int goal) {
+                Heuristic h = unscaled.toGoal(graph, goal);
+                return v -> f * h.estimate(v);
+            }
+
+            @Override
+            public Heuristic fromSource(RoutingGraph graph, int source) {
+                Heuristic h = unscaled.fromSource(graph, source);
+                return v -> f * h.estimate(v);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,532 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A hub labeling distance oracle: every vertex v has a forward label of
+ * (hub, d(v, hub)) pairs and a backward label of (hub, d(hub, v)) pairs,
+ * chosen so that every shortest path from s to t passes through a hub in
+ * both the forward label of s and the backward label of t. The distance
+ * from s to t is then the smallest d(s, h) + d(h, t) over their common hubs,
+ * found by merging the two labels, which are sorted by hub id. A query
+ * touches no graph structure at all.
+ *
+ * Labels are built from a ContractionHierarchy. The upward search space of
+ * v is a valid forward label, since the highest ranked vertex of the CH path
+ * between two vertices lies in both upward search spaces. Entries whose
+ * distance is longer than the true distance to their hub are then pruned,
+ * the true distance being a query over the unpruned labels; such entries
+ * can never be on the best common hub. Both passes run per vertex over the
+ * common fork-join pool.
+ *
+ * Labels of all vertices are kept in flat primitive arrays, the labels of
+ * v being the slots offsets[v]..offsets[v+1]-1. They can be saved next to
+ * the .map file and loaded on the next start instead of being rebuilt.
+ *
+ * A built oracle is immutable and may be queried from many threads.
+ *
+ * @author imdaz
+ */
+public final class HubLabels {
+
+    /** Suffix of the label file written next to a .map file */
+    public static final String FILE_SUFFIX = ".labels";
+
+    private static final int MAGIC = 0x48554c42; // "HULB"
+    private static final int VERSION = 1;
+    // magic, version, vertex and edge counts and fingerprint
+    private static final int HEADER_BYTES = 24;
+
+    // vertices per leaf task while building
+    private static final int THRESHOLD = 64;
+
+    private final RoutingGraph graph;
+    private final int[] forwardOffsets;
+    private final int[] forwardHubs;
+    private final double[] forwardDist;
+    private final int[] backwardOffsets;
+    private final int[] backwardHubs;
+    private final double[] backwardDist;
+
+    private HubLabels(RoutingGraph graph, int[] forwardOffsets,
+            int[] forwardHubs, double[] forwardDist, int[] backwardOffsets,
+            int[] backwardHubs, double[] backwardDist) {
+        this.graph = graph;
+        this.forwardOffsets = forwardOffsets;
+        this.forwardHubs = forwardHubs;
+        this.forwardDist = forwardDist;
+        this.backwardOffsets = backwardOffsets;
+        this.backwardHubs = backwardHubs;
+        this.backwardDist = backwardDist;
+    }
+
+    /**
+     * Build the labels of the graph of a Contraction Hierarchy.
+     *
+     * @param ch The contraction hierarchy
+     * @return The distance oracle
+     */
+    public static HubLabels build(ContractionHierarchy ch) {
+        int n = ch.getGraph().getNumVertices();
+
+        // upward search spaces, sorted by hub
+        int[][] forwardHubs = new int[n][];
+        double[][] forwardDist = new double[n][];
+        int[][] backwardHubs = new int[n][];
+        double[][] backwardDist = new double[n][];
+        // search states of this build, one per leaf running at a time; they
+        // are garbage once the labels are built
+        Queue<UpwardSearch> searches = new ConcurrentLinkedQueue<>();
+        ForkJoinPool.commonPool().invoke(new SearchTask(ch, searches,
+                forwardHubs, forwardDist, backwardHubs, backwardDist, 0, n));
+
+        // a forward entry (h, d) of v is kept only if d = d(v, h), and a
+        // backward entry (h, d) of v only if d = d(h, v)
+        boolean[][] forwardKeep = new boolean[n][];
+        boolean[][] backwardKeep = new boolean[n][];
+        ForkJoinPool.commonPool().invoke(new PruneTask(forwardHubs, forwardDist,
+                backwardHubs, backwardDist, forwardKeep, backwardKeep, 0, n));
+
+        int[] forwardOffsets = new int[n + 1];
+        int[] backwardOffsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            forwardOffsets[v + 1] = forwardOffsets[v] + count(forwardKeep[v]);
+            backwardOffsets[v + 1] = backwardOffsets[v] + count(backwardKeep[v]);
+        }
+        int[] flatForwardHubs = new int[forwardOffsets[n]];
+        double[] flatForwardDist = new double[forwardOffsets[n]];
+        int[] flatBackwardHubs = new int[backwardOffsets[n]];
+        double[] flatBackwardDist = new double[backwardOffsets[n]];
+        for (int v = 0; v < n; v++) {
+            int slot = forwardOffsets[v];
+            for (int i = 0; i < forwardHubs[v].length; i++) {
+                if (forwardKeep[v][i]) {
+                    flatForwardHubs[slot] = forwardHubs[v][i];
+                    flatForwardDist[slot++] = forwardDist[v][i];
+                }
+            }
+            slot = backwardOffsets[v];
+            for (int i = 0; i < backwardHubs[v].length; i++) {
+                if (backwardKeep[v][i]) {
+                    flatBackwardHubs[slot] = backwardHubs[v][i];
+                    flatBackwardDist[slot++] = backwardDist[v][i];
+                }
+            }
+        }
+        return new HubLabels(ch.getGraph(), forwardOffsets, flatForwardHubs,
+                flatForwardDist, backwardOffsets, flatBackwardHubs,
+                flatBackwardDist);
+    }
+
+    /**
+     * Load the labels saved for a map file, or build and save them if there
+     * is no usable file.
+     *
+     * @param graph The graph loaded from the map file
+     * @param mapFile The path of the .map file
+     * @return The distance oracle
+     */
+    public static HubLabels forMap(RoutingGraph graph, String mapFile) {
+        String file = mapFile + FILE_SUFFIX;
+        HubLabels labels = load(graph, file);
+        if (labels == null) {
+            labels = build(new ContractionHierarchy(graph));
+            labels.save(file);
+        }
+        return labels;
+    }
+
+    /**
+     * Load labels from a file.
+     *
+     * @param graph The graph the labels must belong to
+     * @param file The label file
+     * @return The distance oracle, or null if the file is missing, damaged
+     * or was built for a different graph
+     */
+    public static HubLabels load(RoutingGraph graph, String file) {
+        File labelFile = new File(file);
+        if (!labelFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            int n = graph.getNumVertices();
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readInt() != n
+                    || in.readInt() != graph.getNumEdges()
+                    || in.readLong() != graph.fingerprint()) {
+                return null;
+            }
+            // bytes left for label entries of 12 bytes each, after the
+            // header and both offset columns
+            long entryBytes = labelFile.length() - HEADER_BYTES - 8L * (n + 1);
+            int[] forwardOffsets = readOffsets(in, n, entryBytes / 12);
+            int[] forwardHubs = readHubs(in, forwardOffsets, n);
+            double[] forwardDist = readDistances(in, forwardOffsets[n]);
+            entryBytes -= 12L * forwardOffsets[n];
+            int[] backwardOffsets = readOffsets(in, n, entryBytes / 12);
+            int[] backwardHubs = readHubs(in, backwardOffsets, n);
+            double[] backwardDist = readDistances(in, backwardOffsets[n]);
+            return new HubLabels(graph, forwardOffsets, forwardHubs,
+                    forwardDist, backwardOffsets, backwardHubs, backwardDist);
+        } catch (IOException e) {
+            System.err.println("Problem loading label file: " + file);
+            return null;
+        }
+    }
+
+    /**
+     * Save the labels to a file.
+     *
+     * @param file The label file
+     * @return true if the file was written
+     */
+    public boolean save(String file) {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            int n = graph.getNumVertices();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(graph.getNumEdges());
+            out.writeLong(graph.fingerprint());
+            write(out, forwardOffsets, forwardHubs, forwardDist);
+            write(out, backwardOffsets, backwardHubs, backwardDist);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Problem saving label file: " + file);
+            return false;
+        }
+    }
+
+    public RoutingGraph getGraph() {
+        return graph;
+    }
+
+    /** Mean number of hubs per label, over both directions */
+    public double getAverageLabelSize() {
+        int n = graph.getNumVertices();
+        return n == 0 ? 0 : (forwardHubs.length + backwardHubs.length) / (2.0 * n);
+    }
+
+    /**
+     * Find the length of the shortest path from start to goal.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The road distance in km, or Double.POSITIVE_INFINITY if goal
+     * cannot be reached or either point is not a vertex.
+     */
+    public double distance(GeographicPoint start, GeographicPoint goal) {
+        if (start == null || goal == null) {
+            throw new IllegalArgumentException();
+        }
+        int source = graph.indexOf(start);
+        int target = graph.indexOf(goal);
+        if (source < 0 || target < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return distance(source, target);
+    }
+
+    /** Length of the shortest path between two vertex ids */
+    public double distance(int source, int target) {
+        return merge(forwardHubs, forwardDist, forwardOffsets[source],
+                forwardOffsets[source + 1], backwardHubs, backwardDist,
+                backwardOffsets[target], backwardOffsets[target + 1]);
+    }
+
+    // Smallest sum of distances over the hubs two sorted labels share
+    private static double merge(int[] hubsA, double[] distA, int i, int endA,
+            int[] hubsB, double[] distB, int j, int endB) {
+        double best = Double.POSITIVE_INFINITY;
+        while (i < endA && j < endB) {
+            int a = hubsA[i];
+            int b = hubsB[j];
+            if (a < b) {
+                i++;
+            } else if (a > b) {
+                j++;
+            } else {
+                double d = distA[i++] + distB[j++];
+                if (d < best) {
+                    best = d;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int count(boolean[] keep) {
+        int count = 0;
+        for (boolean k : keep) {
+            if (k) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void write(DataOutputStream out, int[] offsets, int[] hubs,
+            double[] dist) throws IOException {
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        for (int hub : hubs) {
+            out.writeInt(hub);
+        }
+        for (double d : dist) {
+            out.writeDouble(d);
+        }
+    }
+
+    // Offsets of n labels holding at most maxEntries entries in all, which
+    // keeps a damaged file from making the arrays read next huge
+    private static int[] readOffsets(DataInputStream in, int n, long maxEntries)
+            throws IOException {
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v <= n; v++) {
+            offsets[v] = in.readInt();
+            if (v > 0 && offsets[v] < offsets[v - 1] || v == 0 && offsets[v] != 0
+                    || offsets[v] > maxEntries) {
+                throw new IOException("Bad label offsets");
+            }
+        }
+        return offsets;
+    }
+
+    // The hubs of every label, which merge needs strictly increasing
+    private static int[] readHubs(DataInputStream in, int[] offsets, int n)
+            throws IOException {
+        int[] hubs = new int[offsets[n]];
+        for (int v = 0; v < n; v++) {
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                hubs[i] = in.readInt();
+                if (hubs[i] < 0 || hubs[i] >= n
+                        || i > offsets[v] && hubs[i] <= hubs[i - 1]) {
+                    throw new IOException("Bad hub id");
+                }
+            }
+        }
+        return hubs;
+    }
+
+    private static double[] readDistances(DataInputStream in, int count)
+            throws IOException {
+        double[] dist = new double[count];
+        for (int i = 0; i < count; i++) {
+            dist[i] = in.readDouble();
+        }
+        return dist;
+    }
+
+    /**
+     * Runs the upward searches of a range of vertices, split in halves until
+     * the range is small. Each leaf takes an idle search state of the build
+     * from the shared queue, or creates one if none is idle, and puts it
+     * back when done.
+     */
+    private static final class SearchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ContractionHierarchy ch;
+        // idle search states, shared by all tasks of one build
+        private final Queue<UpwardSearch> searches;
+        private final int[][] forwardHubs;
+        private final double[][] forwardDist;
+        private final int[][] backwardHubs;
+        private final double[][] backwardDist;
+        private final int from;
+        private final int to;
+
+        SearchTask(ContractionHierarchy ch, Queue<UpwardSearch> searches,
+                int[][] forwardHubs, double[][] forwardDist,
+                int[][] backwardHubs, double[][] backwardDist, int from, int to) {
+            this.ch = ch;
+            this.searches = searches;
+            this.forwardHubs = forwardHubs;
+            this.forwardDist = forwardDist;
+            this.backwardHubs = backwardHubs;
+            this.backwardDist = backwardDist;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SearchTask(ch, searches, forwardHubs, forwardDist,
+                        backwardHubs, backwardDist, from, mid),
+                        new SearchTask(ch, searches, forwardHubs, forwardDist,
+                                backwardHubs, backwardDist, mid, to));
+                return;
+            }
+            UpwardSearch search = searches.poll();
+            if (search == null) {
+                search = new UpwardSearch(ch);
+            }
+            for (int v = from; v < to; v++) {
+                search.search(v, true);
+                forwardHubs[v] = search.hubs();
+                forwardDist[v] = search.distances(forwardHubs[v]);
+                search.search(v, false);
+                backwardHubs[v] = search.hubs();
+                backwardDist[v] = search.distances(backwardHubs[v]);
+            }
+            searches.offer(search);
+        }
+    }
+
+    /**
+     * Dijkstra over the upward (or, backwards, downward) edges of a
+     * hierarchy, recording every settled vertex.
+     */
+    private static final class UpwardSearch {
+
+        private final ContractionHierarchy ch;
+        private final double[] dist;
+        private final int[] stamp;
+        private final IndexedMinHeap queue;
+        private int[] settled;
+        private int count;
+        private int generation;
+
+        UpwardSearch(ContractionHierarchy ch) {
+            this.ch = ch;
+            int n = ch.getGraph().getNumVertices();
+            dist = new double[n];
+            stamp = new int[n];
+            queue = new IndexedMinHeap(n);
+            settled = new int[16];
+        }
+
+        void search(int source, boolean forward) {
+            if (++generation == 0) {
+                Arrays.fill(stamp, 0);
+                generation = 1;
+            }
+            queue.clear();
+            count = 0;
+
+            stamp[source] = generation;
+            dist[source] = 0.0;
+            queue.push(source, 0.0);
+            while (!queue.isEmpty()) {
+                int u = queue.poll();
+                if (count == settled.length) {
+                    settled = Arrays.copyOf(settled, count * 2);
+                }
+                settled[count++] = u;
+                DijkstraSearch.checkInterrupted(count);
+
+                double du = dist[u];
+                int first = forward ? ch.firstUpEdge(u) : ch.firstDownEdge(u);
+                int end = forward ? ch.endUpEdge(u) : ch.endDownEdge(u);
+                for (int i = first; i < end; i++) {
+                    int w = forward ? ch.getUpTarget(i) : ch.getDownSource(i);
+                    double dw = du + (forward ? ch.getUpWeight(i) : ch.getDownWeight(i));
+                    if (stamp[w] != generation || dw < dist[w]) {
+                        stamp[w] = generation;
+                        dist[w] = dw;
+                        queue.push(w, dw);
+                    }
+                }
+            }
+        }
+
+        /** The settled vertices of the last search, sorted */
+        int[] hubs() {
+            int[] hubs = Arrays.copyOf(settled, count);
+            Arrays.sort(hubs);
+            return hubs;
+        }
+
+        double[] distances(int[] hubs) {
+            double[] result = new double[hubs.length];
+            for (int i = 0; i < hubs.length; i++) {
+                result[i] = dist[hubs[i]];
+            }
+            return result;
+        }
+    }
+
+    /** Marks the label entries of a range of vertices that are exact */
+    private static final class PruneTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[][] forwardHubs;
+        private final double[][] forwardDist;
+        private final int[][] backwardHubs;
+        private final double[][] backwardDist;
+        private final boolean[][] forwardKeep;
+        private final boolean[][] backwardKeep;
+        private final int from;
+        private final int to;
+
+        PruneTask(int[][] forwardHubs, double[][] forwardDist,
+                int[][] backwardHubs, double[][] backwardDist,
+                boolean[][] forwardKeep, boolean[][] backwardKeep, int from,
+                int to) {
+            this.forwardHubs = forwardHubs;
+            this.forwardDist = forwardDist;
+            this.backwardHubs = backwardHubs;
+            this.backwardDist = backwardDist;
+            this.forwardKeep = forwardKeep;
+            this.backwardKeep = backwardKeep;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PruneTask(forwardHubs, forwardDist, backwardHubs,
+                        backwardDist, forwardKeep, backwardKeep, from, mid),
+                        new PruneTask(forwardHubs, forwardDist, backwardHubs,
+                                backwardDist, forwardKeep, backwardKeep, mid, to));
+                return;
+            }
+            for (int v = from; v < to; v++) {
+                int[] hubs = forwardHubs[v];
+                forwardKeep[v] = new boolean[hubs.length];
+                for (int i = 0; i < hubs.length; i++) {
+                    int h = hubs[i];
+                    forwardKeep[v][i] = forwardDist[v][i] <= merge(hubs,
+                            forwardDist[v], 0, hubs.length, backwardHubs[h],
+                            backwardDist[h], 0, backwardHubs[h].length);
+                }
+                hubs = backwardHubs[v];
+                backwardKeep[v] = new boolean[hubs.length];
+                for (int i = 0; i < hubs.length; i++) {
+                    int h = hubs[i];
+                    backwardKeep[v][i] = backwardDist[v][i] <= merge(
+                            forwardHubs[h], forwardDist[h], 0,
+                            forwardHubs[h].length, hubs, backwardDist[v], 0,
+                            hubs.length);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of int ids in the range 0..capacity-1 keyed by double
+ * priorities. Each id is in the heap at most once and its position is
+ * tracked, so decreasing the key of a queued id is O(log n) and no boxed
+ * entry is allocated per push.
+ *
+ * @author imdaz
+ */
+class IndexedMinHeap {
+
+    private final int[] heap;
+    private final int[] pos;
+    private final double[] keys;
+    private int size;
+
+    IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        pos = new int[capacity];
+        keys = new double[capacity];
+        Arrays.fill(pos, -1);
+        size = 0;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int id) {
+        return pos[id] >= 0;
+    }
+
+    /** Key of an id currently in the heap */
+    double getKey(int id) {
+        return keys[id];
+    }
+
+    /** Smallest key in the heap. Precondition: the heap is not empty */
+    double peekKey() {
+        return keys[heap[0]];
+    }
+
+    /** Id with the smallest key. Precondition: the heap is not empty */
+    int peek() {
+        return heap[0];
+    }
+
+    /**
+     * Insert an id, or lower its key if it is already queued with a larger
+     * one.
+     *
+     * @return true if the heap changed
+     */
+    boolean push(int id, double key) {
+        int i = pos[id];
+        if (i < 0) {
+            keys[id] = key;
+            heap[size] = id;
+            pos[id] = size;
+            siftUp(size++);
+            return true;
+        }
+        if (key < keys[id]) {
+            keys[id] = key;
+            siftUp(i);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Insert an id, or move it to a new key whether larger or smaller.
+     */
+    void update(int id, double key) {
+        int i = pos[id];
+        if (i < 0) {
+            push(id, key);
+        } else if (key < keys[id]) {
+            keys[id] = key;
+            siftUp(i);
+        } else {
+            keys[id] = key;
+            siftDown(i);
+        }
+    }
+
+    /** Remove and return the id with the smallest key */
+    int poll() {
+        int top = heap[0];
+        pos[top] = -1;
+        size--;
+        if (size > 0) {
+            int last = heap[size];
+            heap[0] = last;
+            pos[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /** Remove every queued id, in time proportional to the heap size */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            pos[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+        int id = heap[i];
+        double key = keys[id];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int p = heap[parent];
+            if (keys[p] <= key) {
+                break;
+            }
+            heap[i] = p;
+            pos[p] = i;
+            i = parent;
+        }
+        heap[i] = id;
+        pos[id] = i;
+    }
+
+    private void siftDown(int i) {
+        int id = heap[i];
+        double key = keys[id];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int c = heap[child];
+            int right = child + 1;
+            if (right < size && keys[heap[right]] < keys[c]) {
+                child = right;
+                c = heap[child];
+            }
+            if (key <= keys[c]) {
+                break;
+            }
+            heap[i] = c;
+            pos[c] = i;
+            i = child;
+        }
+        heap[i] = id;
+        pos[id] = i;
+    }
+
+}
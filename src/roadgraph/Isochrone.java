@@ -0,0 +1,270 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.ConvexHull;
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * The part of a road graph reachable from a source within one or more
+ * distance budgets, for drawing service areas.
+ *
+ * All budgets share one Dijkstra search, run to the largest of them. The
+ * search settles vertices closest first, so the vertices within a smaller
+ * budget are a prefix of the settled ones. Roads leaving a reached vertex
+ * that run out of budget before their end, and are not covered from their
+ * other end either, are reported as CutEdges, which locate the point where
+ * the budget runs out.
+ *
+ * Budgets are identified by their level, their index in increasing order.
+ *
+ * @author imdaz
+ */
+public final class Isochrone {
+
+    /** A road whose end lies beyond a budget, cut where the budget runs out */
+    public static final class CutEdge {
+
+        private final GeographicPoint from;
+        private final GeographicPoint to;
+        private final double length;
+        private final double reach;
+
+        CutEdge(GeographicPoint from, GeographicPoint to, double length,
+                double reach) {
+            this.from = from;
+            this.to = to;
+            this.length = length;
+            this.reach = reach;
+        }
+
+        /** The reached end of the road */
+        public GeographicPoint getFrom() {
+            return from;
+        }
+
+        /** The end of the road beyond the budget */
+        public GeographicPoint getTo() {
+            return to;
+        }
+
+        /** Length of the road, in km */
+        public double getLength() {
+            return length;
+        }
+
+        /** How far along the road from getFrom() the budget lasts, in km */
+        public double getReach() {
+            return reach;
+        }
+
+        /**
+         * Locate the cut on the straight line between the ends of the road.
+         *
+         * @return The point where the budget runs out
+         */
+        public GeographicPoint getPoint() {
+            return getPoint(null);
+        }
+
+        /**
+         * Locate the cut along the geometry of the road.
+         *
+         * @param segment The road segment between getFrom() and getTo(), or
+         * null to use the straight line between them
+         * @return The point where the budget runs out
+         */
+        public GeographicPoint getPoint(RoadSegment segment) {
+            double fraction = length == 0 ? 0 : reach / length;
+            if (segment != null) {
+                return segment.pointAt(from, to, fraction);
+            }
+            return new GeographicPoint(
+                    from.getX() + fraction * (to.getX() - from.getX()),
+                    from.getY() + fraction * (to.getY() - from.getY()));
+        }
+
+        @Override
+        public String toString() {
+            return "CutEdge{" + "from=" + from + ", to=" + to + ", reach="
+                    + reach + " of " + length + '}';
+        }
+    }
+
+    private final RoutingGraph graph;
+    private final int source;
+    private final double[] budgets;
+    private final int[] settled;
+    private final double[] dist;
+    // number of settled vertices within each budget
+    private final int[] counts;
+    // index of each vertex in settled, -1 for vertices not reached
+    private final int[] position;
+
+    Isochrone(RoutingGraph graph, int source, double[] budgets, int[] settled,
+            double[] dist, int count) {
+        this.graph = graph;
+        this.source = source;
+        this.budgets = budgets;
+        this.settled = settled;
+        this.dist = dist;
+        counts = new int[budgets.length];
+        for (int level = 0; level < budgets.length; level++) {
+            // first settled vertex beyond the budget
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (dist[mid] <= budgets[level]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            counts[level] = lo;
+        }
+        position = new int[graph.getNumVertices()];
+        Arrays.fill(position, -1);
+        for (int i = 0; i < count; i++) {
+            position[settled[i]] = i;
+        }
+    }
+
+    public GeographicPoint getSource() {
+        return graph.getPoint(source);
+    }
+
+    /** The budgets in km, in increasing order */
+    public double[] getBudgets() {
+        return budgets.clone();
+    }
+
+    /** Number of vertices reached within a budget */
+    public int getNumReached(int level) {
+        return counts[level];
+    }
+
+    /**
+     * Get the vertices reached within a budget.
+     *
+     * @param level The budget
+     * @return The reached intersections, closest first
+     */
+    public List<GeographicPoint> getReached(int level) {
+        int count = counts[level];
+        return new AbstractList<GeographicPoint>() {
+            @Override
+            public GeographicPoint get(int i) {
+                if (i < 0 || i >= count) {
+                    throw new IndexOutOfBoundsException();
+                }
+                return graph.getPoint(settled[i]);
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Get the road distance from the source to a reached vertex.
+     *
+     * @param level The budget
+     * @param i The index of the vertex in getReached(level)
+     * @return The distance in km
+     */
+    public double getDistance(int level, int i) {
+        if (i < 0 || i >= counts[level]) {
+            throw new IndexOutOfBoundsException();
+        }
+        return dist[i];
+    }
+
+    /**
+     * Get the roads cut by a budget: those that leave a reached vertex and
+     * run out of budget before their end. A road whose other end is reached
+     * too is cut only if the budget left at its two ends, together, does
+     * not cover it, taking the road back to be as long; it then appears once
+     * from each end.
+     *
+     * @param level The budget
+     * @return The cut roads
+     */
+    public List<CutEdge> getCutEdges(int level) {
+        double budget = budgets[level];
+        List<CutEdge> result = new ArrayList<>();
+        for (int i = 0; i < counts[level]; i++) {
+            int u = settled[i];
+            double left = budget - dist[i];
+            for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                double length = graph.getLength(e);
+                if (length <= left) {
+                    continue;
+                }
+                int target = graph.getTarget(e);
+                int j = position[target];
+                if (j >= 0 && j < counts[level]
+                        && left + (budget - dist[j]) >= length) {
+                    // covered from both ends, so nothing of it is cut off
+                    continue;
+                }
+                result.add(new CutEdge(graph.getPoint(u),
+                        graph.getPoint(target), length, left));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Locate the points where a budget runs out along the cut roads.
+     *
+     * @param level The budget
+     * @param segments Finds the road segment between two intersections, for
+     * example DataSet::getSegment, or null to cut roads as straight lines
+     * @return One point per cut road, each where the reachable part of the
+     * road ends
+     */
+    public List<GeographicPoint> getBoundary(int level,
+            BiFunction<GeographicPoint, GeographicPoint, RoadSegment> segments) {
+        List<GeographicPoint> result = new ArrayList<>();
+        for (CutEdge cut : getCutEdges(level)) {
+            RoadSegment segment = segments == null ? null
+                    : segments.apply(cut.getFrom(), cut.getTo());
+            result.add(cut.getPoint(segment));
+        }
+        return result;
+    }
+
+    /**
+     * Outline the area reachable within a budget as the convex hull of the
+     * reached vertices and the boundary points. The corners can be pushed
+     * onto the path of a Polygon shape to draw the area on the map.
+     *
+     * @param level The budget
+     * @param segments Finds road segments, as for getBoundary
+     * @return The corners of the area in counter-clockwise order
+     */
+    public List<GeographicPoint> getHull(int level,
+            BiFunction<GeographicPoint, GeographicPoint, RoadSegment> segments) {
+        List<GeographicPoint> points = new ArrayList<>(getReached(level));
+        points.addAll(getBoundary(level, segments));
+        return ConvexHull.of(points);
+    }
+
+    @Override
+    public String toString() {
+        return "Isochrone{" + "source=" + getSource() + ", budgets="
+                + Arrays.toString(budgets) + ", reached="
+                + Arrays.toString(counts) + '}';
+    }
+
+}
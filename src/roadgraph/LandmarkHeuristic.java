@@ -0,0 +1,299 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * ALT (A*, Landmarks, Triangle inequality) bounds for A* search.
+ *
+ * A few landmark vertices are picked on the periphery of the graph and the
+ * road distance from every landmark to every vertex and back is stored. By
+ * the triangle inequality, for any landmark L
+ *
+ *   d(v, t) >= d(L, t) - d(L, v)   and   d(v, t) >= d(v, L) - d(t, L)
+ *
+ * and the heuristic is the best of these bounds over all landmarks and the
+ * great circle distance. Landmarks help most on long routes; where the
+ * graph is poorly connected to them the great circle bound still applies.
+ *
+ * The tables are float arrays, half the size of doubles. The rounding error
+ * is covered by subtracting a small slack from every bound, so the bounds
+ * never overestimate. Tables can be saved next to the .map file and loaded
+ * on the next start instead of being recomputed.
+ *
+ * @author imdaz
+ */
+public final class LandmarkHeuristic implements HeuristicFactory {
+
+    /** Suffix of the landmark file written next to a .map file */
+    public static final String FILE_SUFFIX = ".landmarks";
+
+    private static final int MAGIC = 0x4c4d524b; // "LMRK"
+    private static final int VERSION = 1;
+
+    private final int numVertices;
+    private final int numEdges;
+    private final long fingerprint;
+    private final int[] landmarks;
+    // fromLandmark[i][v] = d(landmarks[i], v), toLandmark[i][v] = d(v, landmarks[i])
+    private final float[][] fromLandmark;
+    private final float[][] toLandmark;
+    private final double slack;
+
+    private LandmarkHeuristic(RoutingGraph graph, int[] landmarks,
+            float[][] fromLandmark, float[][] toLandmark) {
+        this.numVertices = graph.getNumVertices();
+        this.numEdges = graph.getNumEdges();
+        this.fingerprint = graph.fingerprint();
+        this.landmarks = landmarks;
+        this.fromLandmark = fromLandmark;
+        this.toLandmark = toLandmark;
+
+        float max = 0;
+        for (int i = 0; i < landmarks.length; i++) {
+            for (int v = 0; v < numVertices; v++) {
+                if (fromLandmark[i][v] != Float.POSITIVE_INFINITY) {
+                    max = Math.max(max, fromLandmark[i][v]);
+                }
+                if (toLandmark[i][v] != Float.POSITIVE_INFINITY) {
+                    max = Math.max(max, toLandmark[i][v]);
+                }
+            }
+        }
+        // each bound subtracts two floats, each off by at most half an ulp
+        this.slack = 2 * Math.ulp(max);
+    }
+
+    /**
+     * Select landmarks and compute their distance tables.
+     *
+     * The first landmark is the vertex farthest from the center of the
+     * graph's bounding box. Each next one is the vertex whose round trip
+     * distance to the closest landmark chosen so far is largest, which keeps
+     * landmarks spread around the periphery.
+     *
+     * @param graph The graph to compute the tables for
+     * @param count The number of landmarks
+     * @return The heuristic factory
+     */
+    public static LandmarkHeuristic compute(RoutingGraph graph, int count) {
+        int n = graph.getNumVertices();
+        if (count < 1 || n == 0) {
+            throw new IllegalArgumentException();
+        }
+        count = Math.min(count, n);
+
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < n; v++) {
+            minLat = Math.min(minLat, graph.getLatitude(v));
+            maxLat = Math.max(maxLat, graph.getLatitude(v));
+            minLon = Math.min(minLon, graph.getLongitude(v));
+            maxLon = Math.max(maxLon, graph.getLongitude(v));
+        }
+        double centerLat = (minLat + maxLat) / 2;
+        double centerLon = (minLon + maxLon) / 2;
+        int first = 0;
+        double farthest = -1;
+        for (int v = 0; v < n; v++) {
+            double dLat = graph.getLatitude(v) - centerLat;
+            double dLon = graph.getLongitude(v) - centerLon;
+            double d = dLat * dLat + dLon * dLon;
+            if (d > farthest) {
+                farthest = d;
+                first = v;
+            }
+        }
+
+        int[] landmarks = new int[count];
+        float[][] from = new float[count][];
+        float[][] to = new float[count][];
+        double[] closest = new double[n];
+        Arrays.fill(closest, Double.POSITIVE_INFINITY);
+        DijkstraSearch search = new DijkstraSearch(graph);
+
+        int next = first;
+        for (int i = 0; i < count; i++) {
+            landmarks[i] = next;
+            from[i] = new float[n];
+            to[i] = new float[n];
+
+            search.search(next, -1, Heuristic.NONE, x -> {
+            });
+            for (int v = 0; v < n; v++) {
+                from[i][v] = (float) search.getDistance(v);
+            }
+            search.searchReverse(next);
+            for (int v = 0; v < n; v++) {
+                to[i][v] = (float) search.getDistance(v);
+            }
+
+            double best = -1;
+            for (int v = 0; v < n; v++) {
+                double roundTrip = (double) from[i][v] + to[i][v];
+                if (roundTrip < closest[v]) {
+                    closest[v] = roundTrip;
+                }
+                if (closest[v] != Double.POSITIVE_INFINITY && closest[v] > best) {
+                    best = closest[v];
+                    next = v;
+                }
+            }
+        }
+        return new LandmarkHeuristic(graph, landmarks, from, to);
+    }
+
+    /**
+     * Load the landmark tables saved for a map file, or compute and save
+     * them if there is no usable file.
+     *
+     * @param graph The graph loaded from the map file
+     * @param mapFile The path of the .map file
+     * @param count The number of landmarks
+     * @return The heuristic factory
+     */
+    public static LandmarkHeuristic forMap(RoutingGraph graph, String mapFile,
+            int count) {
+        String file = mapFile + FILE_SUFFIX;
+        LandmarkHeuristic landmarks = load(graph, file);
+        if (landmarks == null || landmarks.getNumLandmarks() != Math.min(count,
+                graph.getNumVertices())) {
+            landmarks = compute(graph, count);
+            landmarks.save(file);
+        }
+        return landmarks;
+    }
+
+    /**
+     * Load landmark tables from a file.
+     *
+     * @param graph The graph the tables must belong to
+     * @param file The landmark file
+     * @return The heuristic factory, or null if the file is missing, damaged
+     * or was computed for a different graph
+     */
+    public static LandmarkHeuristic load(RoutingGraph graph, String file) {
+        if (!new File(file).isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readInt() != graph.getNumVertices()
+                    || in.readInt() != graph.getNumEdges()
+                    || in.readLong() != graph.fingerprint()) {
+                return null;
+            }
+            int n = graph.getNumVertices();
+            int count = in.readInt();
+            int[] landmarks = new int[count];
+            for (int i = 0; i < count; i++) {
+                landmarks[i] = in.readInt();
+            }
+            float[][] from = new float[count][n];
+            float[][] to = new float[count][n];
+            for (int i = 0; i < count; i++) {
+                for (int v = 0; v < n; v++) {
+                    from[i][v] = in.readFloat();
+                }
+                for (int v = 0; v < n; v++) {
+                    to[i][v] = in.readFloat();
+                }
+            }
+            return new LandmarkHeuristic(graph, landmarks, from, to);
+        } catch (IOException e) {
+            System.err.println("Problem loading landmark file: " + file);
+            return null;
+        }
+    }
+
+    /**
+     * Save the landmark tables to a file.
+     *
+     * @param file The landmark file
+     * @return true if the file was written
+     */
+    public boolean save(String file) {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numVertices);
+            out.writeInt(numEdges);
+            out.writeLong(fingerprint);
+            out.writeInt(landmarks.length);
+            for (int landmark : landmarks) {
+                out.writeInt(landmark);
+            }
+            for (int i = 0; i < landmarks.length; i++) {
+                for (int v = 0; v < numVertices; v++) {
+                    out.writeFloat(fromLandmark[i][v]);
+                }
+                for (int v = 0; v < numVertices; v++) {
+                    out.writeFloat(toLandmark[i][v]);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Problem saving landmark file: " + file);
+            return false;
+        }
+    }
+
+    public int getNumLandmarks() {
+        return landmarks.length;
+    }
+
+    @Override
+    public Heuristic toGoal(RoutingGraph graph, int goal) {
+        checkGraph(graph);
+        GreatCircleHeuristic straight = new GreatCircleHeuristic(graph, goal);
+        return v -> Math.max(bound(v, goal), straight.estimate(v));
+    }
+
+    @Override
+    public Heuristic fromSource(RoutingGraph graph, int source) {
+        checkGraph(graph);
+        GreatCircleHeuristic straight = new GreatCircleHeuristic(graph, source);
+        return v -> Math.max(bound(source, v), straight.estimate(v));
+    }
+
+    /** Lower bound on d(v, t) from all landmarks */
+    private double bound(int v, int t) {
+        double best = 0;
+        for (int i = 0; i < landmarks.length; i++) {
+            float[] from = fromLandmark[i];
+            float[] to = toLandmark[i];
+            // Unreachable pairs give no usable bound and are skipped
+            if (from[t] != Float.POSITIVE_INFINITY
+                    && from[v] != Float.POSITIVE_INFINITY) {
+                best = Math.max(best, from[t] - from[v]);
+            }
+            if (to[v] != Float.POSITIVE_INFINITY
+                    && to[t] != Float.POSITIVE_INFINITY) {
+                best = Math.max(best, to[v] - to[t]);
+            }
+        }
+        return Math.max(0.0, best - slack);
+    }
+
+    private void checkGraph(RoutingGraph graph) {
+        if (graph.getNumVertices() != numVertices
+                || graph.getNumEdges() != numEdges) {
+            throw new IllegalArgumentException("Landmarks were computed for a different graph");
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Edge weights that change while routing goes on, such as travel times
+ * from a traffic feed, published read-copy-update style.
+ *
+ * The current weights are an immutable Snapshot behind an AtomicReference.
+ * A query takes the snapshot once with acquire() and routes on it to the
+ * end, so it sees one consistent set of weights however many updates are
+ * published meanwhile. An update copies the current weight column, applies
+ * the changes to the copy and publishes it with a single reference swap;
+ * readers never lock or wait. Old snapshots are reclaimed by the garbage
+ * collector once the last query using them returns. The views of all
+ * versions share each thread's search arrays, so a version costs only its
+ * weight column.
+ *
+ * Updates are serialized with each other, and each costs a copy of the
+ * weight column, 4 bytes per edge, so they suit bulk changes every few
+ * seconds or minutes rather than one edge at a time.
+ *
+ * Every snapshot counts the queries that acquired it, and the last
+ * HISTORY_SIZE versions keep their counts for monitoring, together with the
+ * number of edges changed and the time updates took.
+ *
+ * @author imdaz
+ */
+public final class LiveWeights {
+
+    /** Number of versions whose reader counts are kept */
+    public static final int HISTORY_SIZE = 16;
+
+    /** Reader count and timing of one version of the weights */
+    public static final class VersionStats {
+
+        private final long version;
+        private final int edgesChanged;
+        private final long publishedAt;
+        private final LongAdder readers = new LongAdder();
+
+        VersionStats(long version, int edgesChanged) {
+            this.version = version;
+            this.edgesChanged = edgesChanged;
+            this.publishedAt = System.currentTimeMillis();
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /** Number of edges the update that made this version changed */
+        public int getEdgesChanged() {
+            return edgesChanged;
+        }
+
+        /** When the version was published, in epoch milliseconds */
+        public long getPublishedAt() {
+            return publishedAt;
+        }
+
+        /** Number of queries that have routed on this version so far */
+        public long getReaders() {
+            return readers.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "VersionStats{" + "version=" + version + ", edgesChanged="
+                    + edgesChanged + ", readers=" + getReaders() + '}';
+        }
+    }
+
+    /** One immutable version of the weights and the view to route on */
+    public static final class Snapshot {
+
+        private final WeightedGraph graph;
+        private final FrozenMapGraph view;
+        private final VersionStats stats;
+
+        Snapshot(WeightedGraph graph, HeuristicFactory heuristicFactory,
+                SearchStates searchStates, VersionStats stats) {
+            this.graph = graph;
+            this.view = new FrozenMapGraph(graph, heuristicFactory, searchStates);
+            this.stats = stats;
+        }
+
+        public long getVersion() {
+            return stats.version;
+        }
+
+        /** The graph whose edge lengths are the weights of this version */
+        public WeightedGraph getGraph() {
+            return graph;
+        }
+
+        /** A view for searching with the weights of this version */
+        public FrozenMapGraph getView() {
+            return view;
+        }
+
+        public VersionStats getStats() {
+            return stats;
+        }
+    }
+
+    private final RoutingGraph base;
+    private final HeuristicFactory heuristicFactory;
+    // per-thread searches shared by the views of all versions, which differ
+    // only in their weights
+    private final SearchStates searchStates;
+    private final AtomicReference<Snapshot> current;
+    private final Deque<VersionStats> history;
+
+    // written only while holding the lock of this object
+    private long updates;
+    private long edgesUpdated;
+    private long updateNanos;
+
+    /**
+     * Start live weights at the edge lengths of a graph.
+     *
+     * @param graph The graph whose lengths are the first weights, such as a
+     * CompactGraph or a WeightedGraph of travel times
+     * @param heuristicFactory Creates lower bounds on the distance in km;
+     * they are rescaled to each version of the weights
+     */
+    public LiveWeights(RoutingGraph graph, HeuristicFactory heuristicFactory) {
+        this(graph, heuristicFactory, graph == null ? null : new SearchStates(graph));
+    }
+
+    /**
+     * Start live weights that search with the per-thread state of other
+     * views of the same roads, as MapGraph's.
+     *
+     * @param graph The graph whose lengths are the first weights
+     * @param heuristicFactory Creates lower bounds on the distance in km
+     * @param searchStates The search state for the topology of graph
+     */
+    LiveWeights(RoutingGraph graph, HeuristicFactory heuristicFactory,
+            SearchStates searchStates) {
+        if (graph == null || heuristicFactory == null || searchStates == null) {
+            throw new IllegalArgumentException();
+        }
+        this.base = graph instanceof WeightedGraph
+                ? ((WeightedGraph) graph).getBase() : graph;
+        this.heuristicFactory = heuristicFactory;
+        this.searchStates = searchStates;
+        float[] weights = new float[graph.getNumEdges()];
+        for (int e = 0; e < weights.length; e++) {
+            weights[e] = (float) graph.getLength(e);
+        }
+        history = new ArrayDeque<>();
+        current = new AtomicReference<>(publish(weights, 0, 0));
+    }
+
+    // Make the snapshot of a new version; callers hold the lock of this
+    // object, except the constructor
+    private Snapshot publish(float[] weights, long version, int edgesChanged) {
+        VersionStats stats = new VersionStats(version, edgesChanged);
+        history.addFirst(stats);
+        if (history.size() > HISTORY_SIZE) {
+            history.removeLast();
+        }
+        return new Snapshot(new WeightedGraph(base, weights),
+                heuristicFactory.scaled(minCostPerKm(weights)), searchStates, stats);
+    }
+
+    // The least weight per km of road, which keeps km heuristics admissible
+    private double minCostPerKm(float[] weights) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int e = 0; e < weights.length; e++) {
+            double length = base.getLength(e);
+            if (length > 0) {
+                min = Math.min(min, weights[e] / length);
+            }
+        }
+        return min == Double.POSITIVE_INFINITY ? 0.0 : min;
+    }
+
+    /** The graph the weights are for, with lengths in km */
+    public RoutingGraph getBase() {
+        return base;
+    }
+
+    /**
+     * Get the current weights for a query and count the query as one of
+     * their readers. Route on the snapshot for the whole query.
+     *
+     * @return The current snapshot
+     */
+    public Snapshot acquire() {
+        Snapshot snapshot = current.get();
+        snapshot.stats.readers.increment();
+        return snapshot;
+    }
+
+    /** The current version, without counting a reader */
+    public long getVersion() {
+        return current.get().getVersion();
+    }
+
+    /**
+     * Get the id of the edge between two intersections, for turning the
+     * records of a feed into the edge ids update takes.
+     *
+     * @param from The intersection the edge starts at
+     * @param to The intersection the edge ends at
+     * @return The id of the edge, or -1 if there is none
+     */
+    public int edgeId(GeographicPoint from, GeographicPoint to) {
+        int u = base.indexOf(from);
+        int w = base.indexOf(to);
+        if (u < 0 || w < 0) {
+            return -1;
+        }
+        return Route.edgeBetween(base, u, w);
+    }
+
+    /**
+     * Change the weights of some edges and publish the result as a new
+     * version. Queries already running keep the version they acquired.
+     * Either every change is published or, if any is invalid, none.
+     *
+     * @param edges The ids of the edges to change
+     * @param weights The new weight of each edge, finite and not negative,
+     * in the unit of the first weights
+     * @return The version published
+     */
+    public long update(int[] edges, double[] weights) {
+        if (edges == null || weights == null || edges.length != weights.length) {
+            throw new IllegalArgumentException();
+        }
+        for (int i = 0; i < edges.length; i++) {
+            if (edges[i] < 0 || edges[i] >= base.getNumEdges()) {
+                throw new IllegalArgumentException("No edge " + edges[i]);
+            }
+            if (!(weights[i] >= 0) || Double.isInfinite(weights[i])) {
+                throw new IllegalArgumentException("Invalid weight " + weights[i]
+                        + " for edge " + edges[i]);
+            }
+        }
+
+        synchronized (this) {
+            long start = System.nanoTime();
+            Snapshot previous = current.get();
+            float[] next = previous.graph.copyWeights();
+            for (int i = 0; i < edges.length; i++) {
+                next[edges[i]] = (float) weights[i];
+            }
+            long version = previous.getVersion() + 1;
+            current.set(publish(next, version, edges.length));
+
+            updates++;
+            edgesUpdated += edges.length;
+            updateNanos += System.nanoTime() - start;
+            return version;
+        }
+    }
+
+    /** Number of updates published since these weights were created */
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    /** Total number of edge weights changed by all updates */
+    public synchronized long getEdgesUpdated() {
+        return edgesUpdated;
+    }
+
+    /**
+     * Get the rate at which updates have changed weights, counting only
+     * the time spent inside update.
+     *
+     * @return Edge weights changed per second, or 0 before the first update
+     */
+    public synchronized double getUpdateThroughput() {
+        return updateNanos == 0 ? 0.0 : edgesUpdated * 1e9 / updateNanos;
+    }
+
+    /**
+     * Get the statistics of the most recent versions.
+     *
+     * @return Up to HISTORY_SIZE versions, the current one first
+     */
+    public synchronized List<VersionStats> getHistory() {
+        return new ArrayList<>(history);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LiveWeights{" + "version=" + getVersion() + ", updates=" + updates
+                + ", edgesUpdated=" + edgesUpdated + ", edgesPerSecond="
+                + Math.round(getUpdateThroughput()) + '}';
+    }
+
+}
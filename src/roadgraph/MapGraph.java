@@ -8,13 +8,16 @@
 package roadgraph;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import geography.GeographicPoint;
-import java.util.Collections;
+import geography.RoadSegment;
+import geography.SpatialIndex;
+import roadgraph.RoutingExecutor.Algorithm;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import util.GraphLoader;
 
 /**
@@ -26,9 +29,24 @@ import util.GraphLoader;
  */
 public class MapGraph {
 
+    // Memory the 2-argument searches may fill with cached routes
+    private static final long ROUTE_CACHE_BYTES = 16L << 20;
+
     private HashMap<GeographicPoint, MapNode> mapNodes;
     private int numEdges;
     private int numVertices;
+    // Structures derived from the nodes, built on first use and dropped by
+    // invalidate. They are volatile and built while holding the lock of this
+    // object, so any number of threads may ask for them at once.
+    private volatile CompactGraph compactGraph;
+    private SearchStates searchStates;
+    private volatile FrozenMapGraph frozen;
+    private final Map<Weighting, FrozenMapGraph> weightedViews;
+    private volatile ContractionHierarchy contractionHierarchy;
+    private volatile LiveWeights liveWeights;
+    private volatile SpatialIndex spatialIndex;
+    private HeuristicFactory heuristicFactory;
+    private final RouteCache routeCache;
 
     /**
      * Create a new empty MapGraph
@@ -37,6 +55,15 @@ public class MapGraph {
         mapNodes = new HashMap<>();
         numEdges = 0;
         numVertices = 0;
+        compactGraph = null;
+        searchStates = null;
+        frozen = null;
+        weightedViews = new ConcurrentHashMap<>();
+        contractionHierarchy = null;
+        liveWeights = null;
+        spatialIndex = null;
+        heuristicFactory = GreatCircleHeuristic.FACTORY;
+        routeCache = new RouteCache(ROUTE_CACHE_BYTES);
     }
 
     /**
@@ -82,6 +109,7 @@ public class MapGraph {
 
         mapNodes.put(location, new MapNode(location));
         numVertices++;
+        invalidate();
         return true;
     }
 
@@ -111,115 +139,272 @@ public class MapGraph {
         if (!mapNodes.get(from).hasEdge(to)) {
             mapNodes.get(from).addNeighbor(to, roadName, roadType, length);
             numEdges++;
+            invalidate();
         }
     }
 
     /**
-     * Find the path from start to goal using breadth first search
+     * Get a frozen CSR view of this graph for the search algorithms. The view
+     * is built on first use and rebuilt after the graph is modified.
      *
-     * @param start The starting location
-     * @param goal The goal location
-     * @return The list of intersections that form the shortest (unweighted)
-     * path from start to goal (including both start and goal).
+     * @return The compact representation of the current graph
      */
-    public List<GeographicPoint> bfs(GeographicPoint start, GeographicPoint goal) {
-        // Dummy variable for calling the search algorithms
-        Consumer<GeographicPoint> temp = (x) -> {
-        };
-        return bfs(start, goal, temp);
+    public CompactGraph getCompactGraph() {
+        CompactGraph compact = compactGraph;
+        if (compact == null) {
+            synchronized (this) {
+                compact = compactGraph;
+                if (compact == null) {
+                    compact = new CompactGraph(mapNodes.values());
+                    searchStates = new SearchStates(compact);
+                    compactGraph = compact;
+                }
+            }
+        }
+        return compact;
     }
 
     /**
-     * Find the path from start to goal using breadth first search
+     * Get an immutable view of this graph that many threads can route on at
+     * once, each reusing its own search state. The view is made on first use
+     * and replaced after the graph or its heuristic is changed; views handed
+     * out earlier keep answering for the graph as it was.
      *
-     * @param start The starting location
-     * @param goal The goal location
-     * @param nodeSearched A hook for visualization. See assignment instructions
-     * for how to use it.
-     * @return The list of intersections that form the shortest (unweighted)
-     * path from start to goal (including both start and goal).
+     * Modifying a MapGraph is not thread safe: build it on one thread, then
+     * share the view (or the MapGraph, as long as nothing modifies it) with
+     * the worker threads. Views and the other derived structures may be
+     * asked for from any number of threads; each is built only once.
+     *
+     * @return The frozen view of the current graph
      */
-    public List<GeographicPoint> bfs(GeographicPoint start,
-            GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+    public FrozenMapGraph freeze() {
+        FrozenMapGraph view = frozen;
+        if (view == null) {
+            synchronized (this) {
+                view = frozen;
+                if (view == null) {
+                    CompactGraph compact = getCompactGraph();
+                    view = new FrozenMapGraph(compact, heuristicFactory, searchStates);
+                    frozen = view;
+                }
+            }
+        }
+        return view;
+    }
 
-        if (start == null || goal == null) {
+    /**
+     * Get an immutable view of this graph whose edge lengths are the costs
+     * of a weighting, for example travel time by car. Each weighting is
+     * evaluated for every edge once and the view is kept, so any number of
+     * profiles can be queried side by side. The A* heuristic is scaled by
+     * the weighting's least cost per km. Views are dropped, like freeze(),
+     * after the graph or its heuristic is changed.
+     *
+     * @param weighting The cost model; Weighting.DISTANCE gives freeze()
+     * @return The frozen view of the current graph under the weighting
+     */
+    public FrozenMapGraph freeze(Weighting weighting) {
+        if (weighting == null) {
             throw new IllegalArgumentException();
-
         }
-        List<GeographicPoint> result = null; 
-
-        if (start.equals(goal)) {
-            result = new LinkedList<>();
-            result.add(goal);
-            return result;
+        if (weighting == Weighting.DISTANCE) {
+            return freeze();
         }
+        FrozenMapGraph view = weightedViews.get(weighting);
+        if (view == null) {
+            synchronized (this) {
+                view = weightedViews.get(weighting);
+                if (view == null) {
+                    CompactGraph compact = getCompactGraph();
+                    view = new FrozenMapGraph(new WeightedGraph(compact, weighting),
+                            heuristicFactory.scaled(weighting.getMinCostPerKm()),
+                            searchStates);
+                    weightedViews.put(weighting, view);
+                }
+            }
+        }
+        return view;
+    }
 
-        //HashMap for tracing path <child, parent>
-        HashMap<MapNode, MapNode> trace = new HashMap<>();
-        HashSet<MapNode> visited = new HashSet<>();
-        List<MapNode> q = new LinkedList();
-
-        MapNode curr = mapNodes.get(start);
-        q.add(curr);
-        trace.put(curr, null);
-        boolean found = false;
-        MapNode tmp;
-
-        while (!q.isEmpty()) {
-            curr = q.remove(0);
+    /**
+     * Get the Contraction Hierarchy of this graph. It is built on first use,
+     * which is much slower than a single search, and rebuilt after the graph
+     * is modified.
+     *
+     * @return The contraction hierarchy of the current graph
+     */
+    public ContractionHierarchy getContractionHierarchy() {
+        ContractionHierarchy ch = contractionHierarchy;
+        if (ch == null) {
+            synchronized (this) {
+                ch = contractionHierarchy;
+                if (ch == null) {
+                    ch = new ContractionHierarchy(getCompactGraph());
+                    contractionHierarchy = ch;
+                }
+            }
+        }
+        return ch;
+    }
 
-            // Hook for visualization.  See writeup.
-            nodeSearched.accept(curr.getLocation());
+    /**
+     * Get the cache of routes found by the 2-argument search methods, for
+     * its hit, miss and eviction counts. The paths those methods return are
+     * shared with the cache and cannot be modified. The cache is emptied
+     * whenever the graph changes, so it never answers with a route of an
+     * older graph.
+     *
+     * @return The route cache of this graph
+     */
+    public RouteCache getRouteCache() {
+        return routeCache;
+    }
 
-            if (curr.getLocation().equals(goal)) {
-                found = true;
-                break;
-            }
+    // Drop the derived search structures after the graph changed
+    private synchronized void invalidate() {
+        compactGraph = null;
+        searchStates = null;
+        frozen = null;
+        weightedViews.clear();
+        contractionHierarchy = null;
+        liveWeights = null;
+        spatialIndex = null;
+        routeCache.clear();
+    }
 
-            if (!visited.contains(curr)) {
-
-                for (MapEdge edge : curr.getNeighbors().values()) {
-                    tmp = mapNodes.get(edge.getEnd());
-                    if (!visited.contains(tmp)) {
-
-                        /* adds a neighbor only if it has not been added before
-                         // to trace. This preventing adding self-loops and 
-                         // longer paths to q.
-                         */
-                        if (!trace.containsKey(tmp)) {
-                            q.add(tmp);
-                            trace.put(tmp, curr);
-                        }
-                    }
+    /**
+     * Get the live edge weights of this graph, which start at the road
+     * lengths and follow updateEdgeWeights. Route on acquire().getView() to
+     * take traffic into account. They are created on first use, keep the
+     * heuristic in effect then, and are dropped after the graph is
+     * modified.
+     *
+     * @return The live weights of the current graph
+     */
+    public LiveWeights getLiveWeights() {
+        LiveWeights live = liveWeights;
+        if (live == null) {
+            synchronized (this) {
+                live = liveWeights;
+                if (live == null) {
+                    CompactGraph compact = getCompactGraph();
+                    live = new LiveWeights(compact, heuristicFactory, searchStates);
+                    liveWeights = live;
                 }
-                visited.add(curr);
             }
         }
+        return live;
+    }
 
-        if (found) {
-            result = buildPath(trace, goal);
-        } 
+    /**
+     * Change the weights of many roads at once, for example to the travel
+     * times of a traffic feed, without pausing queries that route on
+     * getLiveWeights().
+     *
+     * @param edges The roads to change, identified by their end points
+     * @param weights The new weight of each road, in km or whatever unit
+     * every weight given is in
+     * @return The version of the live weights published
+     */
+    public long updateEdgeWeights(List<MapEdge> edges, double[] weights) {
+        if (edges == null || weights == null || edges.size() != weights.length) {
+            throw new IllegalArgumentException();
+        }
+        LiveWeights live = getLiveWeights();
+        int[] ids = new int[weights.length];
+        for (int i = 0; i < ids.length; i++) {
+            MapEdge edge = edges.get(i);
+            ids[i] = live.edgeId(edge.getStart(), edge.getEnd());
+            if (ids[i] < 0) {
+                throw new IllegalArgumentException("No road from " + edge.getStart()
+                        + " to " + edge.getEnd());
+            }
+        }
+        return live.update(ids, weights);
+    }
 
-        return result;
+    /**
+     * Find the intersection closest to a location, for example one the user
+     * clicked, so it can be used as the start or goal of a search.
+     *
+     * @param lat The latitude of the location
+     * @param lon The longitude of the location
+     * @return The closest vertex, or null if the graph is empty
+     */
+    public GeographicPoint nearestVertex(double lat, double lon) {
+        return getSpatialIndex().nearest(lat, lon);
     }
 
     /**
-     * Create a path from trace HashMap. returns a path - list of points from
-     * start to goal
+     * Find the k intersections closest to a location.
+     *
+     * @param lat The latitude of the location
+     * @param lon The longitude of the location
+     * @param k The number of vertices to find
+     * @return Up to k vertices, closest first
      */
-    private List<GeographicPoint> buildPath(HashMap<MapNode, MapNode> trace,
-            GeographicPoint goal) {
+    public List<GeographicPoint> kNearest(double lat, double lon, int k) {
+        return getSpatialIndex().kNearest(lat, lon, k);
+    }
 
-        MapNode curr = mapNodes.get(goal);
+    private SpatialIndex getSpatialIndex() {
+        SpatialIndex index = spatialIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = spatialIndex;
+                if (index == null) {
+                    index = new SpatialIndex(mapNodes.keySet());
+                    spatialIndex = index;
+                }
+            }
+        }
+        return index;
+    }
 
-        List<GeographicPoint> result = new LinkedList<>();
-        while (curr != null) {
-            result.add(curr.getLocation());
-            curr = trace.get(curr);
+    /**
+     * Set the heuristic used by aStarSearch. It must never overestimate the
+     * road distance to the goal.
+     *
+     * @param heuristicFactory Creates the heuristic for each goal
+     */
+    public synchronized void setHeuristic(HeuristicFactory heuristicFactory) {
+        if (heuristicFactory == null) {
+            throw new IllegalArgumentException();
         }
+        this.heuristicFactory = heuristicFactory;
+        frozen = null;
+        weightedViews.clear();
+        // another heuristic may break ties between equal routes differently
+        routeCache.clear();
+    }
+
+    /**
+     * Find the path from start to goal using breadth first search
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest (unweighted)
+     * path from start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bfs(GeographicPoint start, GeographicPoint goal) {
+        return routeCache.get(start, goal, Algorithm.BFS,
+                () -> bfs(start, goal, (x) -> {
+                }));
+    }
 
-        Collections.reverse(result);
-        return result;
+    /**
+     * Find the path from start to goal using breadth first search
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization. See assignment instructions
+     * for how to use it.
+     * @return The list of intersections that form the shortest (unweighted)
+     * path from start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bfs(GeographicPoint start,
+            GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+        return freeze().bfs(start, goal, nodeSearched);
     }
 
     /**
@@ -231,11 +416,8 @@ public class MapGraph {
      * to goal (including both start and goal).
      */
     public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal) {
-        // Dummy variable for calling the search algorithms
-        // You do not need to change this method.
-        Consumer<GeographicPoint> temp = (x) -> {
-        };
-        return dijkstra(start, goal, temp);
+        return routeCache.get(start, goal, Algorithm.DIJKSTRA,
+                () -> freeze().dijkstra(start, goal));
     }
 
     /**
@@ -250,11 +432,34 @@ public class MapGraph {
      */
     public List<GeographicPoint> dijkstra(GeographicPoint start,
             GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
-		// TODO: Implement this method in WEEK 3
+        return freeze().dijkstra(start, goal, nodeSearched);
+    }
 
-        // Hook for visualization.  See writeup.
-        //nodeSearched.accept(next.getLocation());
-        return null;
+    /**
+     * Find the shortest paths from a source to every intersection with one
+     * Dijkstra search. The last few trees are kept until the graph changes,
+     * so later dijkstra(source, goal) calls read their path from the tree.
+     *
+     * @param source The starting location
+     * @return The shortest path tree of source, or null if it is not in the
+     * graph
+     */
+    public ShortestPathTree shortestPathTree(GeographicPoint source) {
+        return freeze().shortestPathTree(source);
+    }
+
+    /**
+     * Find the intersections and partial roads reachable from a source
+     * within distance budgets, for example to draw a service area. Several
+     * budgets share one search.
+     *
+     * @param source The starting location
+     * @param budgets The distances in km, in any order
+     * @return The reachable part of the graph for each budget, or null if
+     * source is not in the graph
+     */
+    public Isochrone isochrone(GeographicPoint source, double... budgets) {
+        return freeze().isochrone(source, budgets);
     }
 
     /**
@@ -266,10 +471,9 @@ public class MapGraph {
      * to goal (including both start and goal).
      */
     public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal) {
-        // Dummy variable for calling the search algorithms
-        Consumer<GeographicPoint> temp = (x) -> {
-        };
-        return aStarSearch(start, goal, temp);
+        return routeCache.get(start, goal, Algorithm.A_STAR,
+                () -> aStarSearch(start, goal, (x) -> {
+                }));
     }
 
     /**
@@ -284,11 +488,176 @@ public class MapGraph {
      */
     public List<GeographicPoint> aStarSearch(GeographicPoint start,
             GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
-		// TODO: Implement this method in WEEK 3
+        return freeze().aStarSearch(start, goal, nodeSearched);
+    }
 
-        // Hook for visualization.  See writeup.
-        //nodeSearched.accept(next.getLocation());
-        return null;
+    /**
+     * Make turn costs for the current graph, with no turns banned yet. They
+     * must be made again after the graph is modified.
+     *
+     * @param segments Finds the road segment between two intersections, for
+     * the direction roads leave and enter them; may be null
+     * @return Turn costs to pass to dijkstraWithTurns or aStarSearchWithTurns
+     */
+    public TurnCosts createTurnCosts(
+            BiFunction<GeographicPoint, GeographicPoint, RoadSegment> segments) {
+        return new TurnCosts(getCompactGraph(), segments);
+    }
+
+    /**
+     * Find the cheapest path from start to goal that takes no banned turn,
+     * counting the cost of every turn, using Dijkstra's algorithm.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param turns Turn costs from createTurnCosts
+     * @return The list of intersections that form the cheapest path from
+     * start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> dijkstraWithTurns(GeographicPoint start,
+            GeographicPoint goal, TurnCosts turns) {
+        return freeze().dijkstraWithTurns(start, goal, turns);
+    }
+
+    /**
+     * Find the cheapest path from start to goal that takes no banned turn,
+     * counting the cost of every turn, using A-Star search.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param turns Turn costs from createTurnCosts
+     * @return The list of intersections that form the cheapest path from
+     * start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> aStarSearchWithTurns(GeographicPoint start,
+            GeographicPoint goal, TurnCosts turns) {
+        return freeze().aStarSearchWithTurns(start, goal, turns);
+    }
+
+    /**
+     * Find the path from start to goal using Dijkstra's algorithm run from
+     * both ends at once. This settles far fewer vertices than dijkstra on
+     * long routes.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start,
+            GeographicPoint goal) {
+        return routeCache.get(start, goal, Algorithm.BIDIRECTIONAL_DIJKSTRA,
+                () -> bidirectionalDijkstra(start, goal, (x) -> {
+                }));
+    }
+
+    /**
+     * Find the path from start to goal using Dijkstra's algorithm run from
+     * both ends at once.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization, called for vertices
+     * settled by either direction.
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start,
+            GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+        return freeze().bidirectionalDijkstra(start, goal, nodeSearched);
+    }
+
+    /**
+     * Find the path from start to goal using A-Star search run from both
+     * ends at once.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalAStarSearch(GeographicPoint start,
+            GeographicPoint goal) {
+        return routeCache.get(start, goal, Algorithm.BIDIRECTIONAL_A_STAR,
+                () -> bidirectionalAStarSearch(start, goal, (x) -> {
+                }));
+    }
+
+    /**
+     * Find the path from start to goal using A-Star search run from both
+     * ends at once.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization, called for vertices
+     * settled by either direction.
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalAStarSearch(GeographicPoint start,
+            GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+        return freeze().bidirectionalAStarSearch(start, goal, nodeSearched);
+    }
+
+    /**
+     * Find the path from start to goal using the Contraction Hierarchy of
+     * this graph. The first call pays for building the hierarchy; later
+     * queries only explore a small part of the graph.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> contractionHierarchySearch(GeographicPoint start,
+            GeographicPoint goal) {
+        return routeCache.get(start, goal, Algorithm.CONTRACTION_HIERARCHY,
+                () -> getContractionHierarchy().route(start, goal));
+    }
+
+    /**
+     * Find the k shortest loopless paths from start to goal, for offering
+     * a choice of routes.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param k The number of paths wanted
+     * @return Up to k routes, shortest first, each with its roads and length
+     */
+    public List<Route> kShortestPaths(GeographicPoint start, GeographicPoint goal,
+            int k) {
+        return freeze().kShortestPaths(start, goal, k);
+    }
+
+    /**
+     * Find routes from start to goal that differ noticeably from each
+     * other, each sharing at most half its length with another and none
+     * more than 30% longer than the shortest.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param max The number of routes wanted
+     * @return Up to max routes, the shortest first
+     */
+    public List<Route> alternativeRoutes(GeographicPoint start,
+            GeographicPoint goal, int max) {
+        return freeze().alternativeRoutes(start, goal, max);
+    }
+
+    /**
+     * Find the road distances between every source and every target. One
+     * Dijkstra runs per source and stops once all targets are settled; the
+     * sources are spread over the common fork-join pool.
+     *
+     * @param sources The starting locations, one row each
+     * @param targets The goal locations, one column each
+     * @return result[i][j] is the distance in km from sources[i] to
+     * targets[j], or Double.POSITIVE_INFINITY if there is no path or either
+     * point is not in the graph.
+     */
+    public double[][] distanceMatrix(List<GeographicPoint> sources,
+            List<GeographicPoint> targets) {
+        return freeze().distanceMatrix(sources, targets);
     }
 
     @Override
@@ -0,0 +1,367 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import util.GraphLoader;
+
+/**
+ * A RoutingGraph read straight out of a memory mapped file.
+ *
+ * The file has a fixed little endian layout: a header followed by the
+ * columns of a CompactGraph (vertex coordinates, edge lengths, CSR offsets
+ * and targets, the reverse CSR) and an open addressing table from vertex
+ * coordinates to ids. Each column is mapped with FileChannel.map and read
+ * through a DoubleBuffer or IntBuffer view, so opening a graph copies
+ * nothing onto the heap and processes that open the same file share one
+ * copy in the page cache. Reads use absolute indexes only, so one instance
+ * can be searched from many threads.
+ *
+ * Each column must fit in one mapping (2 GB), about 268 million edges.
+ *
+ * To route on one, wrap it in a FrozenMapGraph, for example
+ * new FrozenMapGraph(graph, GreatCircleHeuristic.FACTORY), which reuses
+ * each thread's search state from query to query.
+ *
+ * @author imdaz
+ */
+public final class MappedGraph implements RoutingGraph {
+
+    /** Suffix of the graph file written next to a .map file */
+    public static final String FILE_SUFFIX = ".graph";
+
+    private static final int MAGIC = 0x4d475246; // "MGRF"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int EMPTY = -1;
+
+    private final int numVertices;
+    private final int numEdges;
+
+    private final DoubleBuffer lat;
+    private final DoubleBuffer lon;
+    private final DoubleBuffer lengths;
+    private final IntBuffer offsets;
+    private final IntBuffer targets;
+    private final IntBuffer inOffsets;
+    private final IntBuffer inSources;
+    private final IntBuffer inEdges;
+    // vertex ids by hash of their coordinates, EMPTY in unused slots
+    private final IntBuffer table;
+    private final int tableMask;
+
+    private MappedGraph(FileChannel channel, int numVertices, int numEdges,
+            int tableSize) throws IOException {
+        this.numVertices = numVertices;
+        this.numEdges = numEdges;
+        Layout layout = new Layout(numVertices, numEdges, tableSize);
+        lat = map(channel, layout.lat, 8L * numVertices).asDoubleBuffer();
+        lon = map(channel, layout.lon, 8L * numVertices).asDoubleBuffer();
+        lengths = map(channel, layout.lengths, 8L * numEdges).asDoubleBuffer();
+        offsets = map(channel, layout.offsets, 4L * (numVertices + 1)).asIntBuffer();
+        targets = map(channel, layout.targets, 4L * numEdges).asIntBuffer();
+        inOffsets = map(channel, layout.inOffsets, 4L * (numVertices + 1)).asIntBuffer();
+        inSources = map(channel, layout.inSources, 4L * numEdges).asIntBuffer();
+        inEdges = map(channel, layout.inEdges, 4L * numEdges).asIntBuffer();
+        table = map(channel, layout.table, 4L * tableSize).asIntBuffer();
+        tableMask = tableSize - 1;
+    }
+
+    /**
+     * Map a graph file.
+     *
+     * @param file The graph file
+     * @return The graph, or null if the file is missing or damaged
+     */
+    public static MappedGraph load(String file) {
+        if (!new File(file).isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_BYTES) {
+                return null;
+            }
+            ByteBuffer header = map(channel, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            int n = header.getInt();
+            int m = header.getInt();
+            int tableSize = header.getInt();
+            // a full table would make indexOf probe forever for a missing
+            // point; save always leaves at least half of it empty
+            if (n < 0 || m < 0 || Integer.bitCount(tableSize) != 1
+                    || tableSize <= n
+                    || new Layout(n, m, tableSize).end != channel.size()) {
+                return null;
+            }
+            // the mappings stay valid after the channel is closed
+            MappedGraph graph = new MappedGraph(channel, n, m, tableSize);
+            return graph.hasValidTable() ? graph : null;
+        } catch (IOException e) {
+            System.err.println("Problem loading graph file: " + file);
+            return null;
+        }
+    }
+
+    // Whether every table entry is EMPTY or a vertex id
+    private boolean hasValidTable() {
+        for (int slot = 0; slot <= tableMask; slot++) {
+            int v = table.get(slot);
+            if (v < EMPTY || v >= numVertices) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write a graph to a file in the layout load maps. The file is written
+     * under a temporary name and then moved into place, so processes that
+     * still map an older version keep reading intact data.
+     *
+     * @param graph The graph to save
+     * @param file The graph file
+     * @return true if the file was written
+     */
+    public static boolean save(RoutingGraph graph, String file) {
+        int n = graph.getNumVertices();
+        int m = graph.getNumEdges();
+        int tableSize = Integer.highestOneBit(Math.max(1, 2 * n - 1)) << 1;
+        Layout layout = new Layout(n, m, tableSize);
+
+        File temp = new File(file + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+                FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            raf.setLength(layout.end);
+
+            ByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE,
+                    0, HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(m)
+                    .putInt(tableSize);
+
+            DoubleBuffer latOut = map(channel, FileChannel.MapMode.READ_WRITE,
+                    layout.lat, 8L * n).asDoubleBuffer();
+            DoubleBuffer lonOut = map(channel, FileChannel.MapMode.READ_WRITE,
+                    layout.lon, 8L * n).asDoubleBuffer();
+            IntBuffer offsetsOut = map(channel, FileChannel.MapMode.READ_WRITE,
+                    layout.offsets, 4L * (n + 1)).asIntBuffer();
+            IntBuffer inOffsetsOut = map(channel, FileChannel.MapMode.READ_WRITE,
+                    layout.inOffsets, 4L * (n + 1)).asIntBuffer();
+            IntBuffer tableOut = map(channel, FileChannel.MapMode.READ_WRITE,
+                    layout.table, 4L * tableSize).asIntBuffer();
+            for (int i = 0; i < tableSize; i++) {
+                tableOut.put(i, EMPTY);
+            }
+            for (int v = 0; v < n; v++) {
+                double x = graph.getLatitude(v);
+                double y = graph.getLongitude(v);
+                latOut.put(v, x);
+                lonOut.put(v, y);
+                offsetsOut.put(v, graph.firstEdge(v));
+                inOffsetsOut.put(v, graph.firstInEdge(v));
+                int slot = PointIndex.hash(x, y) & (tableSize - 1);
+                while (tableOut.get(slot) != EMPTY) {
+                    slot = (slot + 1) & (tableSize - 1);
+                }
+                tableOut.put(slot, v);
+            }
+            offsetsOut.put(n, n == 0 ? 0 : graph.endEdge(n - 1));
+            inOffsetsOut.put(n, n == 0 ? 0 : graph.endInEdge(n - 1));
+
+            DoubleBuffer lengthsOut = map(channel, FileChannel.MapMode.READ_WRITE,
+                    layout.lengths, 8L * m).asDoubleBuffer();
+            IntBuffer targetsOut = map(channel, FileChannel.MapMode.READ_WRITE,
+                    layout.targets, 4L * m).asIntBuffer();
+            IntBuffer inSourcesOut = map(channel, FileChannel.MapMode.READ_WRITE,
+                    layout.inSources, 4L * m).asIntBuffer();
+            IntBuffer inEdgesOut = map(channel, FileChannel.MapMode.READ_WRITE,
+                    layout.inEdges, 4L * m).asIntBuffer();
+            for (int e = 0; e < m; e++) {
+                lengthsOut.put(e, graph.getLength(e));
+                targetsOut.put(e, graph.getTarget(e));
+                inSourcesOut.put(e, graph.getInSource(e));
+                inEdgesOut.put(e, graph.getInEdge(e));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Problem saving graph file: " + file);
+            temp.delete();
+            return false;
+        }
+        try {
+            Files.move(temp.toPath(), Paths.get(file),
+                    StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Problem saving graph file: " + file);
+            temp.delete();
+            return false;
+        }
+    }
+
+    @Override
+    public int getNumVertices() {
+        return numVertices;
+    }
+
+    @Override
+    public int getNumEdges() {
+        return numEdges;
+    }
+
+    @Override
+    public int indexOf(GeographicPoint location) {
+        double x = location.getX();
+        double y = location.getY();
+        int slot = PointIndex.hash(x, y) & tableMask;
+        int v;
+        while ((v = table.get(slot)) != EMPTY) {
+            if (lat.get(v) == x && lon.get(v) == y) {
+                return v;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    @Override
+    public GeographicPoint getPoint(int v) {
+        return new GeographicPoint(lat.get(v), lon.get(v));
+    }
+
+    @Override
+    public double getLatitude(int v) {
+        return lat.get(v);
+    }
+
+    @Override
+    public double getLongitude(int v) {
+        return lon.get(v);
+    }
+
+    @Override
+    public int firstEdge(int v) {
+        return offsets.get(v);
+    }
+
+    @Override
+    public int endEdge(int v) {
+        return offsets.get(v + 1);
+    }
+
+    @Override
+    public int getTarget(int e) {
+        return targets.get(e);
+    }
+
+    @Override
+    public double getLength(int e) {
+        return lengths.get(e);
+    }
+
+    @Override
+    public int firstInEdge(int v) {
+        return inOffsets.get(v);
+    }
+
+    @Override
+    public int endInEdge(int v) {
+        return inOffsets.get(v + 1);
+    }
+
+    @Override
+    public int getInSource(int slot) {
+        return inSources.get(slot);
+    }
+
+    @Override
+    public int getInEdge(int slot) {
+        return inEdges.get(slot);
+    }
+
+    @Override
+    public String toString() {
+        return "MappedGraph{" + "numVertices=" + numVertices
+                + ", numEdges=" + numEdges + '}';
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size)
+            throws IOException {
+        return map(channel, FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    private static ByteBuffer map(FileChannel channel, FileChannel.MapMode mode,
+            long position, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * File offsets of the columns, each aligned to 8 bytes.
+     */
+    private static final class Layout {
+
+        final long lat;
+        final long lon;
+        final long lengths;
+        final long offsets;
+        final long targets;
+        final long inOffsets;
+        final long inSources;
+        final long inEdges;
+        final long table;
+        final long end;
+
+        Layout(int n, int m, int tableSize) {
+            lat = HEADER_BYTES;
+            lon = align(lat + 8L * n);
+            lengths = align(lon + 8L * n);
+            offsets = align(lengths + 8L * m);
+            targets = align(offsets + 4L * (n + 1));
+            inOffsets = align(targets + 4L * m);
+            inSources = align(inOffsets + 4L * (n + 1));
+            inEdges = align(inSources + 4L * m);
+            table = align(inEdges + 4L * m);
+            end = align(table + 4L * tableSize);
+        }
+
+        private static long align(long offset) {
+            return (offset + 7) & ~7L;
+        }
+    }
+
+    /**
+     * Convert a .map file to a graph file next to it.
+     *
+     * @param args The path of the .map file
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: MappedGraph <file.map>");
+            return;
+        }
+        MapGraph map = new MapGraph();
+        GraphLoader.loadRoadMap(args[0], map);
+        String file = args[0] + FILE_SUFFIX;
+        if (save(map.getCompactGraph(), file)) {
+            System.out.println("Wrote " + file + ": " + load(file));
+        }
+    }
+
+}
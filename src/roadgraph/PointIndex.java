@@ -0,0 +1,111 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.Arrays;
+
+/**
+ * Interns locations as dense int vertex ids. An open addressing table with
+ * linear probing maps latitude and longitude to an id, kept in primitive
+ * arrays: a lookup hashes two doubles and compares them, without boxing an
+ * Integer, calling GeographicPoint.hashCode or chasing entry objects.
+ *
+ * Keys compare like GeographicPoint.equals, with == on both coordinates, as
+ * MappedGraph.indexOf does too: -0.0 matches 0.0, and a NaN coordinate
+ * matches nothing, not even itself.
+ *
+ * @author imdaz
+ */
+final class PointIndex {
+
+    private static final int EMPTY = -1;
+
+    // latitude and longitude of slot i at 2i and 2i+1
+    private final double[] keys;
+    private final int[] values;
+    private final int mask;
+    private final int capacity;
+    private int size;
+
+    /**
+     * Create an empty index.
+     *
+     * @param capacity The most locations it will hold
+     */
+    PointIndex(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        // at most half full, so probe sequences stay short
+        int slots = Integer.highestOneBit(Math.max(1, 2 * capacity - 1)) << 1;
+        keys = new double[2 * slots];
+        values = new int[slots];
+        Arrays.fill(values, EMPTY);
+        mask = slots - 1;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Hash of a location, also used to lay out the table of a MappedGraph.
+     * -0.0 is folded into 0.0, as they compare equal with ==.
+     */
+    static int hash(double lat, double lon) {
+        long bits = 31 * Double.doubleToLongBits(lat + 0.0)
+                + Double.doubleToLongBits(lon + 0.0);
+        int h = (int) (bits ^ (bits >>> 32)) * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Get the id of a location.
+     *
+     * @return The id, or -1 if the location was never added
+     */
+    int get(double lat, double lon) {
+        for (int slot = hash(lat, lon) & mask; ; slot = (slot + 1) & mask) {
+            int v = values[slot];
+            if (v == EMPTY || (keys[2 * slot] == lat && keys[2 * slot + 1] == lon)) {
+                return v;
+            }
+        }
+    }
+
+    int get(GeographicPoint location) {
+        return get(location.getX(), location.getY());
+    }
+
+    /**
+     * Give a location an id, unless it already has one.
+     *
+     * @param id The id, not negative
+     * @return The id the location had before, or -1 if it was added
+     */
+    int putIfAbsent(double lat, double lon, int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException();
+        }
+        for (int slot = hash(lat, lon) & mask; ; slot = (slot + 1) & mask) {
+            int v = values[slot];
+            if (v == EMPTY) {
+                if (size == capacity) {
+                    throw new IllegalStateException("PointIndex is full");
+                }
+                keys[2 * slot] = lat;
+                keys[2 * slot + 1] = lon;
+                values[slot] = id;
+                size++;
+                return EMPTY;
+            }
+            if (keys[2 * slot] == lat && keys[2 * slot + 1] == lon) {
+                return v;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A path through a road graph together with the roads it takes and its
+ * total length, as returned by the k shortest paths and alternative route
+ * queries. The intersections can be drawn like any other search result; the
+ * edges give the road name and type of each step.
+ *
+ * Routes are immutable.
+ *
+ * @author imdaz
+ */
+public final class Route {
+
+    private final List<GeographicPoint> points;
+    private final List<MapEdge> edges;
+    private final double length;
+
+    Route(List<GeographicPoint> points, List<MapEdge> edges, double length) {
+        this.points = Collections.unmodifiableList(points);
+        this.edges = Collections.unmodifiableList(edges);
+        this.length = length;
+    }
+
+    /**
+     * Make the route of a path of vertex ids. Between two consecutive
+     * vertices the shortest edge is taken.
+     *
+     * @param graph The graph the ids belong to
+     * @param path The vertex ids, from start to goal
+     * @return The route
+     */
+    static Route of(RoutingGraph graph, int[] path) {
+        List<GeographicPoint> points = new ArrayList<>(path.length);
+        List<MapEdge> edges = new ArrayList<>(Math.max(0, path.length - 1));
+        double length = 0;
+        points.add(graph.getPoint(path[0]));
+        for (int i = 1; i < path.length; i++) {
+            int e = edgeBetween(graph, path[i - 1], path[i]);
+            points.add(graph.getPoint(path[i]));
+            edges.add(edgeOf(graph, e));
+            length += graph.getLength(e);
+        }
+        return new Route(points, edges, length);
+    }
+
+    /** The shortest edge from u to w, or -1 if there is none */
+    static int edgeBetween(RoutingGraph graph, int u, int w) {
+        int best = -1;
+        for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+            if (graph.getTarget(e) == w
+                    && (best < 0 || graph.getLength(e) < graph.getLength(best))) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    // Graphs without MapEdges, such as a MappedGraph, only know the length
+    private static MapEdge edgeOf(RoutingGraph graph, int e) {
+        if (graph instanceof WeightedGraph) {
+            graph = ((WeightedGraph) graph).getBase();
+        }
+        if (graph instanceof CompactGraph) {
+            return ((CompactGraph) graph).getEdge(e);
+        }
+        int u = -1;
+        int lo = 0;
+        int hi = graph.getNumVertices() - 1;
+        // the vertex whose edge range holds e
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (graph.firstEdge(mid) > e) {
+                hi = mid - 1;
+            } else if (graph.endEdge(mid) <= e) {
+                lo = mid + 1;
+            } else {
+                u = mid;
+                break;
+            }
+        }
+        return new MapEdge(graph.getPoint(u), graph.getPoint(graph.getTarget(e)),
+                "", "", graph.getLength(e));
+    }
+
+    /** The intersections from start to goal, inclusive */
+    public List<GeographicPoint> getPoints() {
+        return points;
+    }
+
+    /** The road taken at each step, one fewer than the points */
+    public List<MapEdge> getEdges() {
+        return edges;
+    }
+
+    /** Total length of the route, in km, or its cost on a WeightedGraph */
+    public double getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "Route{" + "length=" + length + ", points=" + points.size() + '}';
+    }
+
+}
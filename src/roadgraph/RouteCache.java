@@ -0,0 +1,204 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A least recently used cache of routes keyed by start, goal and algorithm.
+ *
+ * The cache is bounded by an estimate of the memory its entries hold rather
+ * than by their number, since a cross-town route keeps hundreds of points
+ * and a short one only a few. Cached paths are unmodifiable lists shared by
+ * every caller that asks for the same route. "No path" answers are cached
+ * too.
+ *
+ * clear() starts a new generation. A route whose search began before the
+ * clear is handed back to its caller but not stored, so a search racing with
+ * a change of the graph never puts a stale route in the cache.
+ *
+ * All methods are thread safe; searches run outside the lock.
+ *
+ * @author imdaz
+ */
+public final class RouteCache {
+
+    // Rough sizes on a 64-bit JVM with compressed references. The points of
+    // a path are the graph's own, so each costs one reference plus the list
+    // array's slack; an entry costs the key, the map entry and the list.
+    private static final long ENTRY_BYTES = 160;
+    private static final long POINT_BYTES = 8;
+
+    // Stored for searches that found no path
+    private static final List<GeographicPoint> NO_PATH = Collections.emptyList();
+
+    private static final class Key {
+
+        private final GeographicPoint start;
+        private final GeographicPoint goal;
+        private final RoutingExecutor.Algorithm algorithm;
+
+        Key(GeographicPoint start, GeographicPoint goal,
+                RoutingExecutor.Algorithm algorithm) {
+            this.start = start;
+            this.goal = goal;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return algorithm == other.algorithm && start.equals(other.start)
+                    && goal.equals(other.goal);
+        }
+
+        @Override
+        public int hashCode() {
+            return (start.hashCode() * 31 + goal.hashCode()) * 31
+                    + algorithm.hashCode();
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, List<GeographicPoint>> entries;
+    private long bytes;
+    private long generation;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create an empty cache.
+     *
+     * @param maxBytes The estimated memory the cached routes may hold
+     */
+    public RouteCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxBytes = maxBytes;
+        // access order, so iteration starts at the least recently used route
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Get a route from the cache, or search for it and cache the result.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param algorithm The search the route comes from
+     * @param search Runs the search on a miss
+     * @return The shared, unmodifiable path, or null if there is none
+     */
+    public List<GeographicPoint> get(GeographicPoint start, GeographicPoint goal,
+            RoutingExecutor.Algorithm algorithm,
+            Supplier<List<GeographicPoint>> search) {
+        if (start == null || goal == null || algorithm == null) {
+            throw new IllegalArgumentException();
+        }
+        Key key = new Key(start, goal, algorithm);
+        long searchGeneration;
+        synchronized (this) {
+            List<GeographicPoint> cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached == NO_PATH ? null : cached;
+            }
+            misses++;
+            searchGeneration = generation;
+        }
+
+        List<GeographicPoint> path = search.get();
+        List<GeographicPoint> shared = path == null ? NO_PATH
+                : Collections.unmodifiableList(new ArrayList<>(path));
+        put(key, shared, searchGeneration);
+        return path == null ? null : shared;
+    }
+
+    private synchronized void put(Key key, List<GeographicPoint> path,
+            long searchGeneration) {
+        if (searchGeneration != generation) {
+            return;
+        }
+        long size = sizeOf(path);
+        if (size > maxBytes) {
+            return;
+        }
+        List<GeographicPoint> old = entries.put(key, path);
+        if (old != null) {
+            // another thread searched for the same route meanwhile
+            bytes -= sizeOf(old);
+        }
+        bytes += size;
+
+        Iterator<List<GeographicPoint>> lru = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= sizeOf(lru.next());
+            lru.remove();
+            evictions++;
+        }
+    }
+
+    private static long sizeOf(List<GeographicPoint> path) {
+        return ENTRY_BYTES + POINT_BYTES * path.size();
+    }
+
+    /**
+     * Drop every route, for example because the graph changed. Counts are
+     * kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+        generation++;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** Estimated memory held by the cached routes, in bytes */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Routes dropped to make room; clear() does not count */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RouteCache{" + "size=" + entries.size() + ", bytes=" + bytes
+                + ", hits=" + hits + ", misses=" + misses + ", evictions="
+                + evictions + '}';
+    }
+
+}
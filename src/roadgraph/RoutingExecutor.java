@@ -0,0 +1,410 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Runs many routing requests against one MapGraph on a bounded pool of
+ * worker threads and hands the results back as CompletableFutures.
+ *
+ * The graph is frozen when the executor is created (see MapGraph.freeze),
+ * so every worker reuses its own search state. At most maxPending requests
+ * are queued or running at a time; submitting more blocks the caller until
+ * one finishes, which keeps a fast producer from queueing unbounded work. A
+ * request not finished within the timeout of being submitted fails with a
+ * TimeoutException and its worker is interrupted, which stops the search at
+ * its next check of the interrupt flag; the request counts as pending until
+ * its worker has stopped.
+ *
+ * @author imdaz
+ */
+public final class RoutingExecutor implements AutoCloseable {
+
+    /** The search to run for a request */
+    public enum Algorithm {
+        BFS,
+        DIJKSTRA,
+        A_STAR,
+        BIDIRECTIONAL_DIJKSTRA,
+        BIDIRECTIONAL_A_STAR,
+        CONTRACTION_HIERARCHY
+    }
+
+    /** A routing request: find a path from start to goal */
+    public static final class Request {
+
+        private final GeographicPoint start;
+        private final GeographicPoint goal;
+        private final Algorithm algorithm;
+
+        public Request(GeographicPoint start, GeographicPoint goal,
+                Algorithm algorithm) {
+            if (start == null || goal == null || algorithm == null) {
+                throw new IllegalArgumentException();
+            }
+            this.start = start;
+            this.goal = goal;
+            this.algorithm = algorithm;
+        }
+
+        public GeographicPoint getStart() {
+            return start;
+        }
+
+        public GeographicPoint getGoal() {
+            return goal;
+        }
+
+        public Algorithm getAlgorithm() {
+            return algorithm;
+        }
+    }
+
+    /** Counts and timings of the requests handled so far */
+    public static final class Metrics {
+
+        private final long submitted;
+        private final long completed;
+        private final long failed;
+        private final long timedOut;
+        private final long totalNanos;
+        private final long elapsedNanos;
+
+        Metrics(long submitted, long completed, long failed, long timedOut,
+                long totalNanos, long elapsedNanos) {
+            this.submitted = submitted;
+            this.completed = completed;
+            this.failed = failed;
+            this.timedOut = timedOut;
+            this.totalNanos = totalNanos;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        /** Requests that returned a path or found there was none */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /** Requests whose search threw an exception */
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getTimedOut() {
+            return timedOut;
+        }
+
+        /** Mean running time of the completed requests, in milliseconds */
+        public double getMeanLatencyMillis() {
+            return completed == 0 ? 0 : totalNanos / 1e6 / completed;
+        }
+
+        /** Completed requests per second since the executor was created */
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : completed * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics{" + "submitted=" + submitted + ", completed="
+                    + completed + ", failed=" + failed + ", timedOut="
+                    + timedOut + ", meanLatencyMillis=" + getMeanLatencyMillis()
+                    + ", throughput=" + getThroughput() + '}';
+        }
+    }
+
+    private final MapGraph graph;
+    private final FrozenMapGraph frozen;
+    // the hierarchy of the same roads as frozen, built on a thread of its
+    // own once the first request needs it
+    private final FutureTask<ContractionHierarchy> contractionHierarchy;
+    private final AtomicBoolean contractionStarted = new AtomicBoolean();
+    private final ThreadPoolExecutor workers;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Semaphore pending;
+    private final long timeoutNanos;
+
+    private final long startNanos;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    /**
+     * Create an executor for a graph. The graph must not be modified while
+     * the executor is in use.
+     *
+     * @param graph The graph to route on
+     * @param threads The number of worker threads
+     * @param maxPending The most requests queued or running at once
+     * @param timeout How long one request may run
+     * @param unit The unit of timeout
+     */
+    public RoutingExecutor(MapGraph graph, int threads, int maxPending,
+            long timeout, TimeUnit unit) {
+        if (graph == null || unit == null || threads < 1 || maxPending < 1
+                || timeout <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.graph = graph;
+        this.frozen = graph.freeze();
+        this.contractionHierarchy = new FutureTask<>(this::buildContractionHierarchy);
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.pending = new Semaphore(maxPending);
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                daemonThreads("routing-worker-"));
+        this.timer = new ScheduledThreadPoolExecutor(1,
+                daemonThreads("routing-timeout-"));
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Create an executor with one worker per core, up to 64 pending requests
+     * per worker and a 10 second timeout.
+     *
+     * @param graph The graph to route on
+     */
+    public RoutingExecutor(MapGraph graph) {
+        this(graph, Runtime.getRuntime().availableProcessors(),
+                64 * Runtime.getRuntime().availableProcessors(), 10,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Queue a request, waiting while the executor is full.
+     *
+     * @param request The request to run
+     * @return The path found, or null if there is none or an end point is
+     * not in the graph. Completes exceptionally with a TimeoutException if
+     * the search took too long.
+     * @throws InterruptedException If interrupted while waiting for room
+     */
+    public CompletableFuture<List<GeographicPoint>> submit(Request request)
+            throws InterruptedException {
+        if (request == null) {
+            throw new IllegalArgumentException();
+        }
+        pending.acquire();
+        submitted.increment();
+
+        CompletableFuture<List<GeographicPoint>> result = new CompletableFuture<>();
+        Task task = new Task(request, result);
+        try {
+            workers.execute(task);
+        } catch (RuntimeException e) {
+            pending.release();
+            result.completeExceptionally(e);
+            return result;
+        }
+        Future<?> timeout = timer.schedule(() -> {
+            if (result.completeExceptionally(new TimeoutException(
+                    "Routing request timed out"))) {
+                timedOut.increment();
+                task.interrupt();
+            }
+        }, timeoutNanos, TimeUnit.NANOSECONDS);
+        result.whenComplete((path, error) -> timeout.cancel(false));
+        return result;
+    }
+
+    /**
+     * Queue a request, waiting while the executor is full.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param algorithm The search to run
+     * @return The future path, as for submit(Request)
+     * @throws InterruptedException If interrupted while waiting for room
+     */
+    public CompletableFuture<List<GeographicPoint>> submit(GeographicPoint start,
+            GeographicPoint goal, Algorithm algorithm) throws InterruptedException {
+        return submit(new Request(start, goal, algorithm));
+    }
+
+    /**
+     * Queue every request of a stream, in order. The stream is consumed only
+     * as fast as the executor has room.
+     *
+     * @param requests The requests to run
+     * @return One future per request, in the order of the stream
+     * @throws InterruptedException If interrupted while waiting for room
+     */
+    public List<CompletableFuture<List<GeographicPoint>>> submitAll(
+            Stream<Request> requests) throws InterruptedException {
+        List<CompletableFuture<List<GeographicPoint>>> results = new ArrayList<>();
+        for (Request request : (Iterable<Request>) requests::iterator) {
+            results.add(submit(request));
+        }
+        return results;
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(submitted.sum(), completed.sum(), failed.sum(),
+                timedOut.sum(), totalNanos.sum(), System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Stop accepting requests and wait for the queued ones to finish.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        timer.shutdownNow();
+    }
+
+    /**
+     * One request on its way through the pool. Its permit is released only
+     * when a worker is done with it, so maxPending bounds the work actually
+     * queued or running even after requests time out.
+     */
+    private final class Task implements Runnable {
+
+        private final Request request;
+        private final CompletableFuture<List<GeographicPoint>> result;
+        // the worker running the request, guarded by the lock of this task
+        private Thread runner;
+
+        Task(Request request, CompletableFuture<List<GeographicPoint>> result) {
+            this.request = request;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            try {
+                synchronized (this) {
+                    if (result.isDone()) {
+                        return;
+                    }
+                    runner = Thread.currentThread();
+                }
+                long start = System.nanoTime();
+                try {
+                    List<GeographicPoint> path = route(request);
+                    if (result.complete(path)) {
+                        completed.increment();
+                        totalNanos.add(System.nanoTime() - start);
+                    }
+                } catch (RuntimeException e) {
+                    // a search interrupted after its timeout lands here too,
+                    // but the future has already failed with the
+                    // TimeoutException
+                    if (result.completeExceptionally(e)) {
+                        failed.increment();
+                    }
+                } finally {
+                    synchronized (this) {
+                        runner = null;
+                    }
+                    // an interrupt for this request must not reach the next
+                    Thread.interrupted();
+                }
+            } finally {
+                pending.release();
+            }
+        }
+
+        // Stop the search if a worker is running it; a queued request is
+        // skipped when its turn comes, as its future is already done
+        synchronized void interrupt() {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+    }
+
+    private List<GeographicPoint> route(Request request) {
+        GeographicPoint start = request.getStart();
+        GeographicPoint goal = request.getGoal();
+        switch (request.getAlgorithm()) {
+            case BFS:
+                return frozen.bfs(start, goal);
+            case DIJKSTRA:
+                return frozen.dijkstra(start, goal);
+            case A_STAR:
+                return frozen.aStarSearch(start, goal);
+            case BIDIRECTIONAL_DIJKSTRA:
+                return frozen.bidirectionalDijkstra(start, goal);
+            case BIDIRECTIONAL_A_STAR:
+                return frozen.bidirectionalAStarSearch(start, goal);
+            case CONTRACTION_HIERARCHY:
+                return getContractionHierarchy().route(start, goal);
+            default:
+                throw new IllegalArgumentException("Unknown algorithm");
+        }
+    }
+
+    // Built when the first request needs it rather than up front, as
+    // preprocessing costs far more than a search. It runs on a thread of its
+    // own, not inside a timed request, so requests waiting for it can still
+    // be interrupted when they time out.
+    private ContractionHierarchy getContractionHierarchy() {
+        if (contractionStarted.compareAndSet(false, true)) {
+            daemonThreads("routing-preprocess-").newThread(contractionHierarchy).start();
+        }
+        try {
+            return contractionHierarchy.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Search interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Contraction hierarchy failed",
+                    e.getCause());
+        }
+    }
+
+    // The graph's own hierarchy is shared if it is of the roads frozen;
+    // otherwise the graph has been modified since and the executor builds
+    // one for its view.
+    private ContractionHierarchy buildContractionHierarchy() {
+        RoutingGraph roads = frozen.getGraph();
+        ContractionHierarchy ch = graph.getCompactGraph() == roads
+                ? graph.getContractionHierarchy() : null;
+        if (ch == null || ch.getGraph() != roads) {
+            ch = new ContractionHierarchy(roads);
+        }
+        return ch;
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+
+/**
+ * The read-only, integer indexed adjacency that the searches in this package
+ * run on. Vertices are numbered 0..getNumVertices()-1, the outgoing edges of
+ * vertex v are the edge ids firstEdge(v)..endEdge(v)-1 and its incoming
+ * edges are the in-edge slots firstInEdge(v)..endInEdge(v)-1.
+ *
+ * CompactGraph keeps the columns in heap arrays; MappedGraph reads them from
+ * a memory mapped file.
+ *
+ * @author imdaz
+ */
+public interface RoutingGraph {
+
+    int getNumVertices();
+
+    int getNumEdges();
+
+    /**
+     * Get the id of the vertex at a location
+     *
+     * @param location The location of the intersection
+     * @return The vertex id, or -1 if the location is not a vertex
+     */
+    int indexOf(GeographicPoint location);
+
+    GeographicPoint getPoint(int v);
+
+    double getLatitude(int v);
+
+    double getLongitude(int v);
+
+    /** Id of the first outgoing edge of vertex v */
+    int firstEdge(int v);
+
+    /** One past the id of the last outgoing edge of vertex v */
+    int endEdge(int v);
+
+    default int outDegree(int v) {
+        return endEdge(v) - firstEdge(v);
+    }
+
+    int getTarget(int e);
+
+    double getLength(int e);
+
+    /** First in-edge slot of vertex v */
+    int firstInEdge(int v);
+
+    /** One past the last in-edge slot of vertex v */
+    int endInEdge(int v);
+
+    default int inDegree(int v) {
+        return endInEdge(v) - firstInEdge(v);
+    }
+
+    /** The vertex an incoming edge starts from */
+    int getInSource(int slot);
+
+    /** The forward edge id of an incoming edge */
+    int getInEdge(int slot);
+
+    /**
+     * Hash the vertex coordinates and edges, so data saved for an older
+     * version of a map or a different id order, such as landmark tables
+     * and hub labels, is not reused.
+     *
+     * @return The same value for graphs with the same vertices and edges
+     */
+    default long fingerprint() {
+        long hash = 1125899906842597L;
+        for (int v = 0; v < getNumVertices(); v++) {
+            hash = 31 * hash + Double.doubleToLongBits(getLatitude(v));
+            hash = 31 * hash + Double.doubleToLongBits(getLongitude(v));
+            for (int e = firstEdge(v); e < endEdge(v); e++) {
+                hash = 31 * hash + getTarget(e);
+                hash = 31 * hash + Double.doubleToLongBits(getLength(e));
+            }
+        }
+        return hash;
+    }
+
+}
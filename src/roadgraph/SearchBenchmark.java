@@ -0,0 +1,91 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import util.GraphLoader;
+
+/**
+ * Times the search algorithms of MapGraph on random pairs of intersections.
+ * The route cache is bypassed, so every query runs a search.
+ *
+ * Usage: SearchBenchmark [file.map] [queries]
+ *
+ * @author imdaz
+ */
+public final class SearchBenchmark {
+
+    private static final String DEFAULT_MAP = "data/maps/new_york.map";
+    private static final int DEFAULT_QUERIES = 2000;
+    private static final int ROUNDS = 5;
+
+    private SearchBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        String file = args.length > 0 ? args[0] : DEFAULT_MAP;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_QUERIES;
+
+        MapGraph graph = new MapGraph();
+        GraphLoader.loadRoadMap(file, graph);
+        System.out.println(file + ": " + graph.getNumVertices()
+                + " vertices, " + graph.getNumEdges() + " edges");
+
+        List<GeographicPoint> vertices = new ArrayList<>(graph.getVertices());
+        Random random = new Random(42);
+        GeographicPoint[] starts = new GeographicPoint[queries];
+        GeographicPoint[] goals = new GeographicPoint[queries];
+        for (int i = 0; i < queries; i++) {
+            starts[i] = vertices.get(random.nextInt(vertices.size()));
+            goals[i] = vertices.get(random.nextInt(vertices.size()));
+        }
+
+        Consumer<GeographicPoint> none = (x) -> {
+        };
+        FrozenMapGraph frozen = graph.freeze();
+        ContractionHierarchy ch = graph.getContractionHierarchy();
+
+        run("bfs", starts, goals, (s, g) -> graph.bfs(s, g, none));
+        run("dijkstra", starts, goals, (s, g) -> frozen.dijkstra(s, g, none));
+        run("aStarSearch", starts, goals, (s, g) -> frozen.aStarSearch(s, g, none));
+        run("bidirectionalDijkstra", starts, goals,
+                (s, g) -> frozen.bidirectionalDijkstra(s, g, none));
+        run("bidirectionalAStarSearch", starts, goals,
+                (s, g) -> frozen.bidirectionalAStarSearch(s, g, none));
+        run("contractionHierarchy", starts, goals, ch::route);
+    }
+
+    // Time one algorithm; the first round warms up the JIT and is not shown
+    private static void run(String name, GeographicPoint[] starts,
+            GeographicPoint[] goals,
+            BiFunction<GeographicPoint, GeographicPoint, List<GeographicPoint>> search) {
+        double best = Double.POSITIVE_INFINITY;
+        long found = 0;
+        long points = 0;
+        for (int round = 0; round <= ROUNDS; round++) {
+            found = 0;
+            points = 0;
+            long begin = System.nanoTime();
+            for (int i = 0; i < starts.length; i++) {
+                List<GeographicPoint> path = search.apply(starts[i], goals[i]);
+                if (path != null) {
+                    found++;
+                    points += path.size();
+                }
+            }
+            double micros = (System.nanoTime() - begin) / 1e3 / starts.length;
+            if (round > 0) {
+                best = Math.min(best, micros);
+            }
+        }
+        System.out.printf("%-26s %10.1f us/query  %d found, %.1f points/path%n",
+                name, best, found, found == 0 ? 0.0 : (double) points / found);
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The search state of every thread for the graphs that share one topology,
+ * that is the same vertices and edges whatever the edge lengths. A
+ * CompactGraph and every WeightedGraph over it can share one SearchStates,
+ * so a thread allocates its search arrays once per topology and points them
+ * at whichever weights a query runs on.
+ *
+ * The states of all threads live in one static ThreadLocal holding a weak
+ * map per thread. Once nothing refers to a SearchStates any more, for
+ * example after the MapGraph it belongs to is modified, each thread drops
+ * its arrays for it on its next search. A ThreadLocal per graph would
+ * instead leave them in every worker until the ThreadLocalMap happens to
+ * expunge the dead entry.
+ *
+ * @author imdaz
+ */
+final class SearchStates {
+
+    private static final ThreadLocal<Map<SearchStates, Workspace>> WORKSPACES =
+            ThreadLocal.withInitial(WeakHashMap::new);
+
+    private final int numVertices;
+    private final int numEdges;
+
+    /**
+     * Create the states for graphs with the topology of a graph.
+     *
+     * @param graph Any graph of the topology
+     */
+    SearchStates(RoutingGraph graph) {
+        numVertices = graph.getNumVertices();
+        numEdges = graph.getNumEdges();
+    }
+
+    /** Whether a graph has as many vertices and edges as these states */
+    boolean fits(RoutingGraph graph) {
+        return graph.getNumVertices() == numVertices
+                && graph.getNumEdges() == numEdges;
+    }
+
+    /** The calling thread's Dijkstra search, bound to a graph */
+    DijkstraSearch dijkstra(RoutingGraph graph) {
+        Workspace workspace = workspace();
+        if (workspace.dijkstra == null) {
+            workspace.dijkstra = new DijkstraSearch(graph);
+        } else {
+            workspace.dijkstra.bind(graph);
+        }
+        return workspace.dijkstra;
+    }
+
+    /** The calling thread's bidirectional search, bound to a graph */
+    BidirectionalSearch bidirectional(RoutingGraph graph) {
+        Workspace workspace = workspace();
+        if (workspace.bidirectional == null) {
+            workspace.bidirectional = new BidirectionalSearch(graph);
+        } else {
+            workspace.bidirectional.bind(graph);
+        }
+        return workspace.bidirectional;
+    }
+
+    /** The calling thread's breadth first search, bound to a graph */
+    BreadthFirstSearch breadthFirst(RoutingGraph graph) {
+        Workspace workspace = workspace();
+        if (workspace.breadthFirst == null) {
+            workspace.breadthFirst = new BreadthFirstSearch(graph);
+        } else {
+            workspace.breadthFirst.bind(graph);
+        }
+        return workspace.breadthFirst;
+    }
+
+    /** The calling thread's edge based search, bound to a graph */
+    EdgeBasedSearch edgeBased(RoutingGraph graph) {
+        Workspace workspace = workspace();
+        if (workspace.edgeBased == null) {
+            workspace.edgeBased = new EdgeBasedSearch(graph);
+        } else {
+            workspace.edgeBased.bind(graph);
+        }
+        return workspace.edgeBased;
+    }
+
+    /** The calling thread's query state for a hierarchy of the topology */
+    ContractionHierarchy.Query contraction() {
+        Workspace workspace = workspace();
+        if (workspace.contraction == null) {
+            workspace.contraction = new ContractionHierarchy.Query(numVertices);
+        }
+        return workspace.contraction;
+    }
+
+    private Workspace workspace() {
+        Map<SearchStates, Workspace> workspaces = WORKSPACES.get();
+        Workspace workspace = workspaces.get(this);
+        if (workspace == null) {
+            workspace = new Workspace();
+            workspaces.put(this, workspace);
+        }
+        return workspace;
+    }
+
+    // One thread's searches, created on first use. They refer to the graph
+    // they were last bound to but never to their SearchStates or to anything
+    // holding it, such as a ContractionHierarchy, so the weak key can be
+    // cleared.
+    private static final class Workspace {
+        DijkstraSearch dijkstra;
+        BidirectionalSearch bidirectional;
+        BreadthFirstSearch breadthFirst;
+        EdgeBasedSearch edgeBased;
+        ContractionHierarchy.Query contraction;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The shortest paths from one source to every vertex of a RoutingGraph, as
+ * found by a single Dijkstra search. Distances and parents are kept in
+ * primitive arrays indexed by vertex id; indexOf and getPoint translate
+ * between ids and locations. A path is rebuilt by following parents from
+ * its end, in time proportional to its length.
+ *
+ * Trees are immutable and may be shared between threads.
+ *
+ * @author imdaz
+ */
+public final class ShortestPathTree {
+
+    private final RoutingGraph graph;
+    private final int source;
+    private final double[] dist;
+    private final int[] parent;
+
+    ShortestPathTree(RoutingGraph graph, int source, double[] dist, int[] parent) {
+        this.graph = graph;
+        this.source = source;
+        this.dist = dist;
+        this.parent = parent;
+    }
+
+    public RoutingGraph getGraph() {
+        return graph;
+    }
+
+    /** The id of the root of the tree */
+    public int getSource() {
+        return source;
+    }
+
+    public GeographicPoint getSourcePoint() {
+        return graph.getPoint(source);
+    }
+
+    public int getNumVertices() {
+        return dist.length;
+    }
+
+    /**
+     * Get the id of a location.
+     *
+     * @param point The location
+     * @return The id of the vertex at point, or -1 if it is not in the graph
+     */
+    public int indexOf(GeographicPoint point) {
+        return graph.indexOf(point);
+    }
+
+    /** The location of a vertex id */
+    public GeographicPoint getPoint(int v) {
+        return graph.getPoint(v);
+    }
+
+    /**
+     * Get the road distance from the source to a vertex.
+     *
+     * @param v The id of the vertex
+     * @return The distance in km, or Double.POSITIVE_INFINITY if it cannot
+     * be reached
+     */
+    public double getDistance(int v) {
+        return dist[v];
+    }
+
+    /**
+     * Get the road distance from the source to a location.
+     *
+     * @param point The location
+     * @return The distance in km, or Double.POSITIVE_INFINITY if it cannot
+     * be reached or is not in the graph
+     */
+    public double getDistance(GeographicPoint point) {
+        int v = graph.indexOf(point);
+        return v < 0 ? Double.POSITIVE_INFINITY : dist[v];
+    }
+
+    /**
+     * Get the vertex before another on its shortest path from the source.
+     *
+     * @param v The id of the vertex
+     * @return The id of the parent, or -1 for the source and for vertices
+     * that cannot be reached
+     */
+    public int getParent(int v) {
+        return parent[v];
+    }
+
+    public boolean isReachable(int v) {
+        return dist[v] != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Get the shortest path from the source to a location.
+     *
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from the
+     * source to goal (including both), or null if goal cannot be reached or
+     * is not in the graph.
+     */
+    public List<GeographicPoint> pathTo(GeographicPoint goal) {
+        if (goal == null) {
+            throw new IllegalArgumentException();
+        }
+        int target = graph.indexOf(goal);
+        if (target < 0 || !isReachable(target)) {
+            return null;
+        }
+        List<GeographicPoint> result = new ArrayList<>();
+        for (int v = target; v >= 0; v = parent[v]) {
+            result.add(graph.getPoint(v));
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+}
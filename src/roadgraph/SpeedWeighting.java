@@ -0,0 +1,105 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Travel time in minutes at a speed that depends on the type of road.
+ *
+ * @author imdaz
+ */
+public final class SpeedWeighting implements Weighting {
+
+    /** A car, at about the speed limits of each type of road */
+    public static final SpeedWeighting CAR = new SpeedWeighting("car", 40,
+            speeds("motorway", 110, "motorway_link", 60, "trunk", 90,
+                    "primary", 65, "primary_link", 45, "secondary", 55,
+                    "secondary_link", 40, "tertiary", 45, "tertiary_link", 35,
+                    "unclassified", 35, "residential", 30, "living_street", 10));
+
+    /** A truck, slower everywhere and slowed most on small streets */
+    public static final SpeedWeighting TRUCK = new SpeedWeighting("truck", 25,
+            speeds("motorway", 85, "motorway_link", 45, "trunk", 75,
+                    "primary", 55, "primary_link", 35, "secondary", 45,
+                    "secondary_link", 30, "tertiary", 35, "tertiary_link", 25,
+                    "unclassified", 25, "residential", 15, "living_street", 5));
+
+    /**
+     * A bike, at the same speed on most streets. Motorways are priced at
+     * walking pace so they are only used where nothing else goes.
+     */
+    public static final SpeedWeighting BIKE = new SpeedWeighting("bike", 16,
+            speeds("motorway", 4, "motorway_link", 4, "trunk", 10,
+                    "primary", 16, "secondary", 18, "tertiary", 18,
+                    "residential", 18, "living_street", 12));
+
+    private final String name;
+    private final double defaultSpeed;
+    private final Map<String, Double> speeds;
+    private final double maxSpeed;
+
+    /**
+     * Create a weighting from the speed on each type of road.
+     *
+     * @param name A short name for the profile
+     * @param defaultSpeed The speed in km/h on roads of other or no type
+     * @param speeds The speed in km/h on each type of road
+     */
+    public SpeedWeighting(String name, double defaultSpeed,
+            Map<String, Double> speeds) {
+        if (name == null || speeds == null || !(defaultSpeed > 0)) {
+            throw new IllegalArgumentException();
+        }
+        double max = defaultSpeed;
+        for (double speed : speeds.values()) {
+            if (!(speed > 0) || Double.isInfinite(speed)) {
+                throw new IllegalArgumentException("Speeds must be positive");
+            }
+            max = Math.max(max, speed);
+        }
+        this.name = name;
+        this.defaultSpeed = defaultSpeed;
+        this.speeds = Collections.unmodifiableMap(new HashMap<>(speeds));
+        this.maxSpeed = max;
+    }
+
+    // Pairs of street type and speed
+    private static Map<String, Double> speeds(Object... pairs) {
+        Map<String, Double> result = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            result.put((String) pairs[i], ((Number) pairs[i + 1]).doubleValue());
+        }
+        return result;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /** The speed in km/h on a type of road */
+    public double getSpeed(String streetType) {
+        Double speed = streetType == null ? null : speeds.get(streetType);
+        return speed == null ? defaultSpeed : speed;
+    }
+
+    @Override
+    public double weight(double length, String streetType) {
+        return length * 60 / getSpeed(streetType);
+    }
+
+    @Override
+    public double getMinCostPerKm() {
+        return 60 / maxSpeed;
+    }
+
+    @Override
+    public String toString() {
+        return "SpeedWeighting{" + "name=" + name + ", maxSpeed=" + maxSpeed + '}';
+    }
+
+}
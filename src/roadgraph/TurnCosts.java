@@ -0,0 +1,251 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Banned turns and the cost of turning at each intersection, for searches
+ * whose state is the edge a vertex was entered by instead of the vertex.
+ *
+ * The banned turns of vertex v are one bit for every pair of an incoming and
+ * an outgoing edge of v, inDegree(v) * outDegree(v) bits, all vertices
+ * packed into one long array. The cost of a turn is computed when it is
+ * taken from the compass bearing at which the incoming edge arrives and the
+ * outgoing edge leaves, taken from the road geometry, so nothing is stored
+ * per pair of edges and the edge based graph is never built.
+ *
+ * A turn through an angle d costs turnCost * (1 - cos d): nothing straight
+ * on, turnCost at a right angle. Going back along the road just come by is
+ * a U-turn and costs uTurnCost instead. Costs are in the unit of the edge
+ * lengths of the graph; in km, 0.02 weighs a right turn like 20 m of road.
+ *
+ * Set up the restrictions and costs before searching; changing them while
+ * searches run gives those searches undefined results.
+ *
+ * @author imdaz
+ */
+public final class TurnCosts {
+
+    /** Default cost of a right angle turn, in km */
+    public static final double DEFAULT_TURN_COST = 0.02;
+
+    /** Default cost of a U-turn, in km */
+    public static final double DEFAULT_U_TURN_COST = 0.5;
+
+    private final RoutingGraph graph;
+    // position of each edge among the incoming edges of its target
+    private final int[] inPosition;
+    // bearing in radians at which each edge leaves its source and enters
+    // its target, NaN for edges of no length
+    private final float[] startBearing;
+    private final float[] endBearing;
+    // first bit of each vertex's banned turns, n + 1 entries
+    private final long[] bitStart;
+    private final long[] banned;
+    private double turnCost = DEFAULT_TURN_COST;
+    private double uTurnCost = DEFAULT_U_TURN_COST;
+
+    /**
+     * Create turn costs for a graph with no banned turns.
+     *
+     * @param graph The graph whose edges are turned between
+     * @param segments Finds the road segment between two intersections, such
+     * as DataSet.getSegment, for the bearings at either end of a curved
+     * road; null, or a null result, measures along the straight line
+     */
+    public TurnCosts(RoutingGraph graph,
+            BiFunction<GeographicPoint, GeographicPoint, RoadSegment> segments) {
+        if (graph == null) {
+            throw new IllegalArgumentException();
+        }
+        this.graph = graph;
+        int n = graph.getNumVertices();
+        int m = graph.getNumEdges();
+        inPosition = new int[m];
+        startBearing = new float[m];
+        endBearing = new float[m];
+        bitStart = new long[n + 1];
+
+        for (int v = 0; v < n; v++) {
+            int first = graph.firstInEdge(v);
+            for (int s = first, end = graph.endInEdge(v); s < end; s++) {
+                inPosition[graph.getInEdge(s)] = s - first;
+            }
+            bitStart[v + 1] = bitStart[v]
+                    + (long) graph.inDegree(v) * graph.outDegree(v);
+
+            GeographicPoint from = graph.getPoint(v);
+            for (int e = graph.firstEdge(v), end = graph.endEdge(v); e < end; e++) {
+                GeographicPoint to = graph.getPoint(graph.getTarget(e));
+                RoadSegment segment = segments == null ? null
+                        : segments.apply(from, to);
+                if (segment == null) {
+                    startBearing[e] = endBearing[e] = (float) bearing(from, to);
+                } else {
+                    List<GeographicPoint> points = segment.getPoints(from, to);
+                    startBearing[e] = (float) firstBearing(points);
+                    endBearing[e] = (float) lastBearing(points);
+                }
+            }
+        }
+        banned = new long[(int) ((bitStart[n] + 63) >>> 6)];
+    }
+
+    // Bearing from a towards b in radians, clockwise from north
+    private static double bearing(GeographicPoint a, GeographicPoint b) {
+        double north = b.getX() - a.getX();
+        double east = (b.getY() - a.getY()) * Math.cos(Math.toRadians(a.getX()));
+        if (north == 0 && east == 0) {
+            return Double.NaN;
+        }
+        return Math.atan2(east, north);
+    }
+
+    private static double firstBearing(List<GeographicPoint> points) {
+        GeographicPoint start = points.get(0);
+        for (int i = 1; i < points.size(); i++) {
+            if (!points.get(i).equals(start)) {
+                return bearing(start, points.get(i));
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static double lastBearing(List<GeographicPoint> points) {
+        GeographicPoint end = points.get(points.size() - 1);
+        for (int i = points.size() - 2; i >= 0; i--) {
+            if (!points.get(i).equals(end)) {
+                return bearing(points.get(i), end);
+            }
+        }
+        return Double.NaN;
+    }
+
+    public RoutingGraph getGraph() {
+        return graph;
+    }
+
+    public double getTurnCost() {
+        return turnCost;
+    }
+
+    /**
+     * Set the cost of a right angle turn; other angles cost in proportion
+     * to 1 - cos of the angle turned.
+     *
+     * @param turnCost The cost in km, 0 for none
+     */
+    public void setTurnCost(double turnCost) {
+        if (!(turnCost >= 0)) {
+            throw new IllegalArgumentException("Turn cost must not be negative");
+        }
+        this.turnCost = turnCost;
+    }
+
+    public double getUTurnCost() {
+        return uTurnCost;
+    }
+
+    /**
+     * Set the cost of going back along the road just come by.
+     *
+     * @param uTurnCost The cost in km, or Double.POSITIVE_INFINITY to ban
+     * U-turns everywhere
+     */
+    public void setUTurnCost(double uTurnCost) {
+        if (!(uTurnCost >= 0)) {
+            throw new IllegalArgumentException("U-turn cost must not be negative");
+        }
+        this.uTurnCost = uTurnCost;
+    }
+
+    /**
+     * Ban the turn from one road onto another at an intersection, as in
+     * "no left turn from Main St onto 1st Ave".
+     *
+     * @param from The intersection the incoming road comes from
+     * @param via The intersection the turn is made at
+     * @param to The intersection the outgoing road leads to
+     * @return false if there is no road from from to via or from via to to
+     */
+    public boolean banTurn(GeographicPoint from, GeographicPoint via,
+            GeographicPoint to) {
+        int u = graph.indexOf(from);
+        int v = graph.indexOf(via);
+        int w = graph.indexOf(to);
+        if (u < 0 || v < 0 || w < 0) {
+            return false;
+        }
+        boolean found = false;
+        for (int s = graph.firstInEdge(v), end = graph.endInEdge(v); s < end; s++) {
+            if (graph.getInSource(s) != u) {
+                continue;
+            }
+            int in = graph.getInEdge(s);
+            for (int out = graph.firstEdge(v); out < graph.endEdge(v); out++) {
+                if (graph.getTarget(out) == w) {
+                    long bit = bit(v, in, out);
+                    banned[(int) (bit >>> 6)] |= 1L << bit;
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    // Index of the banned bit for the turn from edge in onto edge out at v
+    private long bit(int v, int in, int out) {
+        return bitStart[v] + (long) inPosition[in] * graph.outDegree(v)
+                + (out - graph.firstEdge(v));
+    }
+
+    /**
+     * Check whether a turn may be taken.
+     *
+     * @param v The vertex turned at, the target of in and source of out
+     * @param in The id of the edge arrived by
+     * @param out The id of the edge left by
+     * @return true if the turn is banned
+     */
+    boolean isBanned(int v, int in, int out) {
+        long bit = bit(v, in, out);
+        return (banned[(int) (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    /**
+     * The cost of a turn, ignoring bans.
+     *
+     * @param v The vertex turned at, the target of in and source of out
+     * @param in The id of the edge arrived by
+     * @param out The id of the edge left by
+     * @return The cost in km, possibly Double.POSITIVE_INFINITY for a U-turn
+     */
+    double cost(int v, int in, int out) {
+        int source = graph.getInSource(graph.firstInEdge(v) + inPosition[in]);
+        if (graph.getTarget(out) == source) {
+            return uTurnCost;
+        }
+        double turn = startBearing[out] - endBearing[in];
+        if (turn != turn) {
+            // one of the roads has no length, so no direction
+            return 0.0;
+        }
+        return turnCost * (1 - Math.cos(turn));
+    }
+
+    @Override
+    public String toString() {
+        int count = 0;
+        for (long word : banned) {
+            count += Long.bitCount(word);
+        }
+        return "TurnCosts{" + "turnCost=" + turnCost + ", uTurnCost=" + uTurnCost
+                + ", banned=" + count + '}';
+    }
+
+}
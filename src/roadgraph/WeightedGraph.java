@@ -0,0 +1,155 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+
+/**
+ * A RoutingGraph whose edge lengths are the costs of a Weighting. The costs
+ * are computed once into a float column indexed by edge id; everything else
+ * is read from the graph underneath, so any number of weightings share one
+ * graph for 4 bytes per edge each, and every search in this package runs
+ * on a weighted graph unchanged.
+ *
+ * @author imdaz
+ */
+public final class WeightedGraph implements RoutingGraph {
+
+    private final RoutingGraph base;
+    private final Weighting weighting;
+    private final float[] weights;
+
+    /**
+     * Evaluate a weighting for every edge of a graph. Street types are known
+     * only for a CompactGraph; the edges of other graphs are weighted as
+     * roads of no type.
+     *
+     * @param base The graph to weight; it must not change afterwards
+     * @param weighting The cost model
+     */
+    public WeightedGraph(RoutingGraph base, Weighting weighting) {
+        if (base == null || weighting == null) {
+            throw new IllegalArgumentException();
+        }
+        this.base = base;
+        this.weighting = weighting;
+        weights = new float[base.getNumEdges()];
+        CompactGraph compact = base instanceof CompactGraph ? (CompactGraph) base : null;
+        for (int e = 0; e < weights.length; e++) {
+            String type = compact == null ? null : compact.getEdge(e).getStreetType();
+            double w = weighting.weight(base.getLength(e), type);
+            if (!(w >= 0) || Double.isInfinite(w)) {
+                throw new IllegalArgumentException("Weighting " + weighting.getName()
+                        + " gave edge " + e + " the cost " + w);
+            }
+            weights[e] = (float) w;
+        }
+    }
+
+    /**
+     * Wrap a column of weights set directly, as LiveWeights does.
+     *
+     * @param base The graph to weight
+     * @param weights The cost of each edge, owned by this graph from now on
+     */
+    WeightedGraph(RoutingGraph base, float[] weights) {
+        this.base = base;
+        this.weighting = null;
+        this.weights = weights;
+    }
+
+    /** A copy of the weight column, for making the next version of it */
+    float[] copyWeights() {
+        return weights.clone();
+    }
+
+    /** The graph whose lengths are in km */
+    public RoutingGraph getBase() {
+        return base;
+    }
+
+    /** The weighting the costs were computed by, or null if set directly */
+    public Weighting getWeighting() {
+        return weighting;
+    }
+
+    @Override
+    public int getNumVertices() {
+        return base.getNumVertices();
+    }
+
+    @Override
+    public int getNumEdges() {
+        return base.getNumEdges();
+    }
+
+    @Override
+    public int indexOf(GeographicPoint location) {
+        return base.indexOf(location);
+    }
+
+    @Override
+    public GeographicPoint getPoint(int v) {
+        return base.getPoint(v);
+    }
+
+    @Override
+    public double getLatitude(int v) {
+        return base.getLatitude(v);
+    }
+
+    @Override
+    public double getLongitude(int v) {
+        return base.getLongitude(v);
+    }
+
+    @Override
+    public int firstEdge(int v) {
+        return base.firstEdge(v);
+    }
+
+    @Override
+    public int endEdge(int v) {
+        return base.endEdge(v);
+    }
+
+    @Override
+    public int getTarget(int e) {
+        return base.getTarget(e);
+    }
+
+    /** The cost of edge e under the weighting */
+    @Override
+    public double getLength(int e) {
+        return weights[e];
+    }
+
+    @Override
+    public int firstInEdge(int v) {
+        return base.firstInEdge(v);
+    }
+
+    @Override
+    public int endInEdge(int v) {
+        return base.endInEdge(v);
+    }
+
+    @Override
+    public int getInSource(int slot) {
+        return base.getInSource(slot);
+    }
+
+    @Override
+    public int getInEdge(int slot) {
+        return base.getInEdge(slot);
+    }
+
+    @Override
+    public String toString() {
+        return "WeightedGraph{" + "weighting="
+                + (weighting == null ? null : weighting.getName()) + ", base="
+                + base + '}';
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Part of MapGraph project.
+ */
+package roadgraph;
+
+/**
+ * A cost model for road edges, such as distance or the travel time of a
+ * car. A WeightedGraph evaluates it once per edge into a column of weights,
+ * so searches never call it and never look at street types.
+ *
+ * Every weighting of a graph shares its topology, so an edge cannot be
+ * removed; give roads a vehicle should keep off a high cost instead.
+ *
+ * @author imdaz
+ */
+public interface Weighting {
+
+    /** The length of the road in km, which is what searches use by default */
+    Weighting DISTANCE = new Weighting() {
+        @Override
+        public String getName() {
+            return "distance";
+        }
+
+        @Override
+        public double weight(double length, String streetType) {
+            return length;
+        }
+
+        @Override
+        public double getMinCostPerKm() {
+            return 1.0;
+        }
+    };
+
+    /** A short name for the profile, such as "car" */
+    String getName();
+
+    /**
+     * The cost of one edge.
+     *
+     * @param length The length of the road in km
+     * @param streetType The type of road, such as "residential" or
+     * "motorway", or null if the graph does not know it
+     * @return The cost, finite and not negative
+     */
+    double weight(double length, String streetType);
+
+    /**
+     * The least cost of a km of road, whatever its type. Multiplying a
+     * distance heuristic by it keeps it a lower bound on the cost.
+     *
+     * @return The smallest weight(length, type) / length
+     */
+    double getMinCostPerKm();
+
+}
@@ -17,8 +17,6 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import basicgraph.Graph;
 import geography.GeographicPoint;
@@ -28,6 +26,19 @@ import roadgraph.MapGraph;
 
 public class GraphLoader 
 {
+	// Whether road maps are loaded from and saved to snapshots
+	private static volatile boolean useSnapshots = false;
+
+	/**
+	 * Turn the binary snapshots of loadRoadMap on or off. They are off
+	 * by default, so loading never writes files next to the maps.
+	 * @param useSnapshots true to read the snapshot of a map while it is
+	 *   newer than the map, and to save one after loading the text file.
+	 */
+	public static void setUseSnapshots(boolean useSnapshots)
+	{
+		GraphLoader.useSnapshots = useSnapshots;
+	}
 	
 	/** 
 	 * 	 * The file contains data lines as follows:
@@ -46,7 +57,7 @@ public class GraphLoader
 	public static void createIntersectionsFile(String roadDataFile, String intersectionsFile)
 	{
 		Collection<GeographicPoint> nodes = new HashSet<GeographicPoint>();
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
+        HashMap<GeographicPoint,List<List<RoadLineInfo>>> pointMap = 
         		buildPointMapOneWay(roadDataFile);
 		
         // Print the intersections to the file
@@ -63,8 +74,8 @@ public class GraphLoader
 			for (GeographicPoint pt : nodes) {
 				// Trace the node to its next node, building up the points 
 				// on the edge as you go.
-				List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(pt);
-				LinkedList<RoadLineInfo> outgoing = inAndOut.get(0);
+				List<List<RoadLineInfo>> inAndOut = pointMap.get(pt);
+				List<RoadLineInfo> outgoing = inAndOut.get(0);
 				for (RoadLineInfo info : outgoing) {
 					HashSet<GeographicPoint> used = new HashSet<GeographicPoint>();
 					used.add(pt);
@@ -125,6 +136,11 @@ public class GraphLoader
 	 * This method will collapse the points so that only intersections 
 	 * are represented as nodes in the graph.
 	 * 
+	 * If snapshots are turned on with setUseSnapshots, the collapsed graph
+	 * is saved in a binary snapshot next to the file (see GraphSnapshot),
+	 * and later loads read the snapshot instead while it is newer than the
+	 * file.
+	 * 
 	 * @param filename The file containing the road data, in the format 
 	 *   described.
 	 * @param map The graph to load the map into.  The graph is
@@ -134,8 +150,18 @@ public class GraphLoader
 			HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
 			Set<GeographicPoint> intersectionsToLoad)
 	{
+		GraphSnapshot snapshot = null;
+		if (useSnapshots) {
+			snapshot = GraphSnapshot.read(filename);
+			if (snapshot != null) {
+				snapshot.replay(map, segments, intersectionsToLoad);
+				return;
+			}
+			snapshot = new GraphSnapshot();
+		}
+
 		Collection<GeographicPoint> nodes = new HashSet<GeographicPoint>();
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
+        HashMap<GeographicPoint,List<List<RoadLineInfo>>> pointMap = 
         		buildPointMapOneWay(filename);
 		
         // Add the nodes to the graph
@@ -146,10 +172,17 @@ public class GraphLoader
 				intersectionsToLoad.add(pt);
 			}
 			nodes.add(pt);
+			if (snapshot != null) {
+				snapshot.addVertex(pt);
+			}
 		}
 		
 		
-		addEdgesAndSegments(nodes, pointMap, map, segments);
+		addEdgesAndSegments(nodes, pointMap, map, segments, snapshot);
+		// Nothing was read if the file is missing, so don't save that
+		if (snapshot != null && !pointMap.isEmpty()) {
+			snapshot.write(filename);
+		}
 	}
 
 	
@@ -173,7 +206,7 @@ public class GraphLoader
 	 */
 	public static void loadRoadMap(String filename, basicgraph.Graph theGraph)
 	{
-		HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
+		HashMap<GeographicPoint,List<List<RoadLineInfo>>> pointMap = 
         		buildPointMapOneWay(filename);
 		
 		HashMap<Integer,GeographicPoint> vertexMap = 
@@ -198,7 +231,7 @@ public class GraphLoader
 			// Trace the node to its next node, building up the points 
 			// on the edge as you go.
 			GeographicPoint pt = vertexMap.get(nodeNum);
-			List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(pt);
+			List<List<RoadLineInfo>> inAndOut = pointMap.get(pt);
 			List<RoadLineInfo> infoList = inAndOut.get(0);
 			for (RoadLineInfo info : infoList) {
 				GeographicPoint end = findEndOfEdge(pointMap, info, theGraph, 
@@ -321,11 +354,13 @@ public class GraphLoader
 	
 	// Once you have built the pointMap and added the Nodes, 
 	// add the edges and build the road segments if the segments
-	// map is not null.
+	// map is not null.  Each edge is also recorded in the snapshot,
+	// if there is one.
 	private static void addEdgesAndSegments(Collection<GeographicPoint> nodes, 
-			HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
+			HashMap<GeographicPoint,List<List<RoadLineInfo>>> pointMap,
 			MapGraph map, 
-			HashMap<GeographicPoint,HashSet<RoadSegment>> segments)
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			GraphSnapshot snapshot)
 	{
 	
 		// Now we need to add the edges
@@ -333,8 +368,8 @@ public class GraphLoader
 		for (GeographicPoint pt : nodes) {
 			// Trace the node to its next node, building up the points 
 			// on the edge as you go.
-			List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(pt);
-			LinkedList<RoadLineInfo> outgoing = inAndOut.get(0);
+			List<List<RoadLineInfo>> inAndOut = pointMap.get(pt);
+			List<RoadLineInfo> outgoing = inAndOut.get(0);
 			for (RoadLineInfo info : outgoing) {
 				HashSet<GeographicPoint> used = new HashSet<GeographicPoint>();
 				used.add(pt);
@@ -344,29 +379,43 @@ public class GraphLoader
 				GeographicPoint end = pointsOnEdge.remove(pointsOnEdge.size()-1);
 				double length = getRoadLength(pt, end, pointsOnEdge);
 				map.addEdge(pt, end, info.roadName, info.roadType, length);
+				if (snapshot != null) {
+					snapshot.addEdge(pt, end, info.roadName, info.roadType, 
+							length, pointsOnEdge);
+				}
 
 				// If the segments variable is not null, then we 
 				// save the road geometry
 				if (segments != null) {
-					// Now create road Segments for each edge
-					HashSet<RoadSegment> segs = segments.get(pt);
-					if (segs == null) {
-						segs = new HashSet<RoadSegment>();
-						segments.put(pt,segs);
-					}
-					RoadSegment seg = new RoadSegment(pt, end, pointsOnEdge, 
+					addSegment(segments, pt, end, pointsOnEdge, 
 							info.roadName, info.roadType, length);
-					segs.add(seg);
-					segs = segments.get(end);
-					if (segs == null) {
-						segs = new HashSet<RoadSegment>();
-						segments.put(end,segs);
-					}
-					segs.add(seg);
 				}
 			}
 		}
 	}
+	
+	// Create the road segment for an edge and file it under both of its
+	// end points.
+	static void addSegment(HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			GeographicPoint pt, GeographicPoint end, 
+			List<GeographicPoint> pointsOnEdge, String roadName, 
+			String roadType, double length)
+	{
+		HashSet<RoadSegment> segs = segments.get(pt);
+		if (segs == null) {
+			segs = new HashSet<RoadSegment>();
+			segments.put(pt,segs);
+		}
+		RoadSegment seg = new RoadSegment(pt, end, pointsOnEdge, 
+				roadName, roadType, length);
+		segs.add(seg);
+		segs = segments.get(end);
+		if (segs == null) {
+			segs = new HashSet<RoadSegment>();
+			segments.put(end,segs);
+		}
+		segs.add(seg);
+	}
 			
 	
 	// Calculate the length of this road segment taking into account all of the 
@@ -385,14 +434,14 @@ public class GraphLoader
 	}
 	
 	private static List<GeographicPoint>
-	findPointsOnEdge(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
+	findPointsOnEdge(HashMap<GeographicPoint,List<List<RoadLineInfo>>> pointMap,
 		RoadLineInfo info, Collection<GeographicPoint> nodes) 
 	{
 		List<GeographicPoint> toReturn = new LinkedList<GeographicPoint>();
 		GeographicPoint pt = info.point1;
 		GeographicPoint end = info.point2;
-		List<LinkedList<RoadLineInfo>> nextInAndOut = pointMap.get(end);
-		LinkedList<RoadLineInfo> nextLines = nextInAndOut.get(0);
+		List<List<RoadLineInfo>> nextInAndOut = pointMap.get(end);
+		List<RoadLineInfo> nextLines = nextInAndOut.get(0);
 		while (!nodes.contains(end)) {
 			toReturn.add(end);
 			RoadLineInfo nextInfo = nextLines.get(0);
@@ -417,7 +466,7 @@ public class GraphLoader
 	// Find the other end of the road segment.  Trace through the pointMap 
 	// starting from the first point in this info until you get to the second.
 	private static GeographicPoint
-	findEndOfEdge(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
+	findEndOfEdge(HashMap<GeographicPoint,List<List<RoadLineInfo>>> pointMap,
 		RoadLineInfo info, basicgraph.Graph graph, 
 		HashMap<GeographicPoint, Integer> reverseMap) 
 	{
@@ -426,7 +475,7 @@ public class GraphLoader
 		GeographicPoint end = info.point2;
 		Integer endNum = reverseMap.get(end);
 		while (endNum==null) {
-			List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(end);
+			List<List<RoadLineInfo>> inAndOut = pointMap.get(end);
 			List<RoadLineInfo> nextLines = inAndOut.get(0);
 			RoadLineInfo nextInfo = nextLines.get(0);
 			if (nextLines.size() == 2) {
@@ -450,15 +499,15 @@ public class GraphLoader
 	// or intersections between two different roads, or where three
 	// or more segments of the same road meet.
 	private static List<GeographicPoint> 
-	findIntersections(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap) {
+	findIntersections(HashMap<GeographicPoint,List<List<RoadLineInfo>>> pointMap) {
 		// Now find the intersections.  These are roads that do not have
 		// Exactly 1 or 2 roads coming in and out, where the roads in
 		// match the roads out.
 		List<GeographicPoint> intersections = new LinkedList<GeographicPoint>();
 		for (GeographicPoint pt : pointMap.keySet()) {
-			List<LinkedList<RoadLineInfo>> roadsInAndOut = pointMap.get(pt);
-			LinkedList<RoadLineInfo> roadsOut = roadsInAndOut.get(0);
-			LinkedList<RoadLineInfo> roadsIn = roadsInAndOut.get(1);
+			List<List<RoadLineInfo>> roadsInAndOut = pointMap.get(pt);
+			List<RoadLineInfo> roadsOut = roadsInAndOut.get(0);
+			List<RoadLineInfo> roadsIn = roadsInAndOut.get(1);
 			
 			boolean isNode = true;
 			
@@ -518,22 +567,26 @@ public class GraphLoader
 	// The map returned is indexed by a GeographicPoint.  The values
 	// are lists of length two where each entry in the list is a list.
 	// The first list stores the outgoing roads while the second 
-	// stores the outgoing roads.
-	private static HashMap<GeographicPoint, List<LinkedList<RoadLineInfo>>>
+	// stores the incoming roads.
+	// The file is tokenized in parallel by RoadFileParser; the lines are
+	// then merged into the map in file order, so the lists (and the graph
+	// built from them) are the same as when reading line by line. A
+	// malformed line throws an IllegalArgumentException naming it, rather
+	// than loading part of the map.
+	private static HashMap<GeographicPoint, List<List<RoadLineInfo>>>
 	buildPointMapOneWay(String filename)
 	{
-		BufferedReader reader = null;
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		new HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>>();
+        HashMap<GeographicPoint,List<List<RoadLineInfo>>> pointMap = 
+        		new HashMap<GeographicPoint,List<List<RoadLineInfo>>>();
 		try {
-            String nextLine;
-            reader = new BufferedReader(new FileReader(filename));
-            // Read the lines out of the file and put them in a HashMap by points
-            while ((nextLine = reader.readLine()) != null) {
-            	RoadLineInfo line = splitInputString(nextLine);
-            	addToPointsMapOneWay(line, pointMap);
-            }
-            reader.close();
+			List<RoadLineInfo> lines = RoadFileParser.parse(filename);
+			// Share one String per distinct road name and type
+			HashMap<String,String> names = new HashMap<String,String>();
+			for (RoadLineInfo line : lines) {
+				line.roadName = intern(names, line.roadName);
+				line.roadType = intern(names, line.roadType);
+				addToPointsMapOneWay(line, pointMap);
+			}
         } catch (IOException e) {
             System.err.println("Problem loading dictionary file: " + filename);
             e.printStackTrace();
@@ -542,60 +595,43 @@ public class GraphLoader
 		return pointMap;
 	}
 
+	private static String intern(HashMap<String,String> names, String name)
+	{
+		String shared = names.putIfAbsent(name, name);
+		return shared == null ? name : shared;
+	}
 
 	// Add the next line read from the file to the points map.
 	private static void 
 	addToPointsMapOneWay(RoadLineInfo line,
-						HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> map)
+						HashMap<GeographicPoint,List<List<RoadLineInfo>>> map)
 	{
-		List<LinkedList<RoadLineInfo>> pt1Infos = map.get(line.point1);
+		List<List<RoadLineInfo>> pt1Infos = map.get(line.point1);
 		if (pt1Infos == null) {
-			pt1Infos = new ArrayList<LinkedList<RoadLineInfo>>();
-			pt1Infos.add(new LinkedList<RoadLineInfo>());
-			pt1Infos.add(new LinkedList<RoadLineInfo>());
+			pt1Infos = newInAndOut();
 			map.put(line.point1, pt1Infos);
 		}
 		List<RoadLineInfo> outgoing = pt1Infos.get(0);
 		outgoing.add(line);
 		
-		List<LinkedList<RoadLineInfo>> pt2Infos = map.get(line.point2);
+		List<List<RoadLineInfo>> pt2Infos = map.get(line.point2);
 		if (pt2Infos == null) {
-			pt2Infos = new ArrayList<LinkedList<RoadLineInfo>>();
-			pt2Infos.add(new LinkedList<RoadLineInfo>());
-			pt2Infos.add(new LinkedList<RoadLineInfo>());
+			pt2Infos = newInAndOut();
 			map.put(line.point2, pt2Infos);
 		}
 		List<RoadLineInfo> incoming = pt2Infos.get(1);
 		incoming.add(line);
 		
 	}
-	
-	// Split the input string into the line information
-	private static RoadLineInfo splitInputString(String input)
-	{	
-		
-		ArrayList<String> tokens = new ArrayList<String>();
-		Pattern tokSplitter = Pattern.compile("[^\\s\"']+|\"([^\"]*)\"");
-		Matcher m = tokSplitter.matcher(input);
-		
-		while (m.find()) {
-			if (m.group(1) != null) {
-				tokens.add(m.group(1));	
-			}
-			else {
-				tokens.add(m.group());
-			}
-		}
-
-    	double lat1 = Double.parseDouble(tokens.get(0));
-        double lon1 = Double.parseDouble(tokens.get(1));
-        double lat2 = Double.parseDouble(tokens.get(2));
-        double lon2 = Double.parseDouble(tokens.get(3));
-        GeographicPoint p1 = new GeographicPoint(lat1, lon1);
-        GeographicPoint p2 = new GeographicPoint(lat2, lon2);
 
-        return new RoadLineInfo(p1, p2, tokens.get(4), tokens.get(5));
-		
+	// Most points have one or two roads in and out, so small ArrayLists
+	// are used rather than LinkedLists.
+	private static List<List<RoadLineInfo>> newInAndOut()
+	{
+		List<List<RoadLineInfo>> inAndOut = new ArrayList<List<RoadLineInfo>>(2);
+		inAndOut.add(new ArrayList<RoadLineInfo>(2));
+		inAndOut.add(new ArrayList<RoadLineInfo>(2));
+		return inAndOut;
 	}
 	
 	public static void main(String[] args)
@@ -614,103 +650,3 @@ public class GraphLoader
 	}
 	
 }	
-	
-
-// A class to store information about the lines in the road files.
-class RoadLineInfo
-{
-	GeographicPoint point1;
-	GeographicPoint point2;
-	
-	String roadName;
-	String roadType;
-	
-	/** Create a new RoadLineInfo object to store information about the line 
-	 * read from the file
-	 * @param p1 One of the points
-	 * @param p2 The other point
-	 * @param roadName The name of the road
-	 * @param roadType The type of the road
-	 */
-	RoadLineInfo(GeographicPoint p1, GeographicPoint p2, String roadName, String roadType) 
-	{
-		point1 = p1;
-		point2 = p2;
-		this.roadName = roadName;
-		this.roadType = roadType;
-	}
-	
-	
-	/** Get the other point from this roadLineInfo */
-	public GeographicPoint getOtherPoint(GeographicPoint pt)
-	{
-		if (pt == null) throw new IllegalArgumentException();
-		if (pt.equals(point1)) {
-			return point2;
-		}
-		else if (pt.equals(point2)) {
-			return point1;
-		}
-		else throw new IllegalArgumentException();
-	}
-	
-	/** Two RoadLineInfo objects are considered equal if they have the same
-	 * two points and the same roadName and roadType.
-	 */
-	public boolean equals(Object o)
-	{
-		if (o == null || !(o instanceof RoadLineInfo))
-		{
-			return false;
-		}
-		RoadLineInfo info = (RoadLineInfo)o;
-		return info.point1.equals(this.point1) && info.point2.equals(this.point2)  &&
-				info.roadType.equals(this.roadType) && info.roadName.equals(this.roadName);
-				
-	}
-	
-	/** Calculate the hashCode based on the hashCodes of the two points
-	 * @return The hashcode for this object.
-	 */
-	public int hashCode()
-	{
-		return point1.hashCode() + point2.hashCode();
-		
-	}
-	
-	/** Returns whether these segments are part of the same road in terms of
-	 * road name and road type.
-	 * @param info The RoadLineInfo to compare against.
-	 * @return true if these represent the same road, false otherwise.
-	 */
-	public boolean sameRoad(RoadLineInfo info)
-	{
-		return info.roadName.equals(this.roadName) && info.roadType.equals(this.roadType);
-	}
-	
-	/** Return a copy of this LineInfo in the other direction */
-	public RoadLineInfo getReverseCopy()
-	{
-		return new RoadLineInfo(this.point2, this.point1, this.roadName, this.roadType);
-	}
-	
-	/** Return true if this road is the same segment as other, but in reverse
-	 *   Otherwise return false.
-	 */
-	public boolean isReverse(RoadLineInfo other)
-	{
-		return this.point1.equals(other.point2) && this.point2.equals(other.point1) &&
-				this.roadName.equals(other.roadName) && this.roadType.equals(other.roadType);
-	}
-	
-	/** Return the string representation of this LineInfo. */
-	public String toString()
-	{
-		return this.point1 + " " + this.point2 + " " + this.roadName + " " + this.roadType;
-		
-	}
-	
-	
-	
-	
-}
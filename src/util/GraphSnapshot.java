@@ -0,0 +1,267 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import roadgraph.MapGraph;
+
+/**
+ * A binary snapshot of a road map after its intersections have been found
+ * and its edges traced, so a later load can skip parsing the text file and
+ * rebuilding the graph.
+ *
+ * The snapshot records the intersections in the order they were added to
+ * the graph and every edge in the order it was added, with its road name and
+ * type as ids into a string dictionary, its length and the geometry of its
+ * road segment. Replaying it makes the same calls as the text loader did, so
+ * the graph and the road segments come out the same.
+ *
+ * Layout (big endian): magic, version, length and modification time of the
+ * source file, dictionary (count, then UTF-8 length and bytes per string),
+ * intersections (count, then lat lon), edges (count, then from, to, name id,
+ * type id, length, geometry point count and lat lon per point).
+ */
+class GraphSnapshot
+{
+	/** Suffix of the snapshot file written next to a .map file */
+	static final String FILE_SUFFIX = ".snapshot";
+
+	private static final int MAGIC = 0x55435347; // "UCSG"
+	private static final int VERSION = 1;
+
+	private final List<GeographicPoint> intersections;
+	private final HashMap<GeographicPoint,Integer> ids;
+	private final List<String> strings;
+	private final HashMap<String,Integer> stringIds;
+
+	// one entry per edge: from, to, name id, type id
+	private int[] edgeInts;
+	private double[] edgeLengths;
+	private List<GeographicPoint>[] edgeGeometry;
+	private int numEdges;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	GraphSnapshot()
+	{
+		intersections = new ArrayList<GeographicPoint>();
+		ids = new HashMap<GeographicPoint,Integer>();
+		strings = new ArrayList<String>();
+		stringIds = new HashMap<String,Integer>();
+		edgeInts = new int[64];
+		edgeLengths = new double[16];
+		edgeGeometry = new List[16];
+		numEdges = 0;
+	}
+
+	/** Record an intersection added to the graph */
+	void addVertex(GeographicPoint pt)
+	{
+		ids.put(pt, intersections.size());
+		intersections.add(pt);
+	}
+
+	/** Record an edge added to the graph, with the geometry of its road */
+	void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
+			String roadType, double length, List<GeographicPoint> geometry)
+	{
+		if (numEdges == edgeLengths.length) {
+			edgeInts = Arrays.copyOf(edgeInts, edgeInts.length * 2);
+			edgeLengths = Arrays.copyOf(edgeLengths, edgeLengths.length * 2);
+			edgeGeometry = Arrays.copyOf(edgeGeometry, edgeGeometry.length * 2);
+		}
+		edgeInts[4 * numEdges] = ids.get(from);
+		edgeInts[4 * numEdges + 1] = ids.get(to);
+		edgeInts[4 * numEdges + 2] = stringId(roadName);
+		edgeInts[4 * numEdges + 3] = stringId(roadType);
+		edgeLengths[numEdges] = length;
+		edgeGeometry[numEdges] = geometry;
+		numEdges++;
+	}
+
+	private int stringId(String s)
+	{
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = strings.size();
+			strings.add(s);
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Add the recorded intersections, edges and road segments to a graph.
+	 */
+	void replay(MapGraph map, HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			Set<GeographicPoint> intersectionsToLoad)
+	{
+		for (GeographicPoint pt : intersections) {
+			map.addVertex(pt);
+			if (intersectionsToLoad != null) {
+				intersectionsToLoad.add(pt);
+			}
+		}
+		for (int e = 0; e < numEdges; e++) {
+			GeographicPoint from = intersections.get(edgeInts[4 * e]);
+			GeographicPoint to = intersections.get(edgeInts[4 * e + 1]);
+			String roadName = strings.get(edgeInts[4 * e + 2]);
+			String roadType = strings.get(edgeInts[4 * e + 3]);
+			map.addEdge(from, to, roadName, roadType, edgeLengths[e]);
+			if (segments != null) {
+				GraphLoader.addSegment(segments, from, to, edgeGeometry[e],
+						roadName, roadType, edgeLengths[e]);
+			}
+		}
+	}
+
+	/**
+	 * Write the snapshot for a map file next to it.
+	 * @param mapFile The text map file the snapshot was built from
+	 */
+	void write(String mapFile)
+	{
+		File source = new File(mapFile);
+		String file = mapFile + FILE_SUFFIX;
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(source.length());
+			out.writeLong(source.lastModified());
+
+			out.writeInt(strings.size());
+			for (String s : strings) {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+
+			out.writeInt(intersections.size());
+			for (GeographicPoint pt : intersections) {
+				out.writeDouble(pt.getX());
+				out.writeDouble(pt.getY());
+			}
+
+			out.writeInt(numEdges);
+			for (int e = 0; e < numEdges; e++) {
+				for (int i = 0; i < 4; i++) {
+					out.writeInt(edgeInts[4 * e + i]);
+				}
+				out.writeDouble(edgeLengths[e]);
+				List<GeographicPoint> geometry = edgeGeometry[e];
+				out.writeInt(geometry.size());
+				for (GeographicPoint pt : geometry) {
+					out.writeDouble(pt.getX());
+					out.writeDouble(pt.getY());
+				}
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Problem writing snapshot file: " + file);
+		}
+	}
+
+	/**
+	 * Read the snapshot saved next to a map file with a single read.
+	 * @param mapFile The text map file
+	 * @return The snapshot, or null if there is none, it is damaged or it is
+	 *   older than the map file.
+	 */
+	static GraphSnapshot read(String mapFile)
+	{
+		File source = new File(mapFile);
+		File file = new File(mapFile + FILE_SUFFIX);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			if (in.getInt() != MAGIC || in.getInt() != VERSION
+					|| in.getLong() != source.length()
+					|| in.getLong() != source.lastModified()) {
+				return null;
+			}
+
+			GraphSnapshot snapshot = new GraphSnapshot();
+			int numStrings = readCount(in, 4);
+			if (numStrings < 0) {
+				return null;
+			}
+			for (int i = 0; i < numStrings; i++) {
+				int numBytes = readCount(in, 1);
+				if (numBytes < 0) {
+					return null;
+				}
+				byte[] bytes = new byte[numBytes];
+				in.get(bytes);
+				snapshot.stringId(new String(bytes, StandardCharsets.UTF_8));
+			}
+
+			int numVertices = readCount(in, 16);
+			if (numVertices < 0) {
+				return null;
+			}
+			for (int i = 0; i < numVertices; i++) {
+				snapshot.addVertex(new GeographicPoint(in.getDouble(), in.getDouble()));
+			}
+
+			int numEdges = readCount(in, 28);
+			if (numEdges < 0) {
+				return null;
+			}
+			for (int e = 0; e < numEdges; e++) {
+				GeographicPoint from = snapshot.intersections.get(in.getInt());
+				GeographicPoint to = snapshot.intersections.get(in.getInt());
+				String roadName = snapshot.strings.get(in.getInt());
+				String roadType = snapshot.strings.get(in.getInt());
+				double length = in.getDouble();
+				int numPoints = readCount(in, 16);
+				if (numPoints < 0) {
+					return null;
+				}
+				List<GeographicPoint> geometry = new ArrayList<GeographicPoint>(numPoints);
+				for (int i = 0; i < numPoints; i++) {
+					geometry.add(new GeographicPoint(in.getDouble(), in.getDouble()));
+				}
+				snapshot.addEdge(from, to, roadName, roadType, length, geometry);
+			}
+			return snapshot;
+		}
+		catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+			System.err.println("Problem reading snapshot file: " + file);
+			return null;
+		}
+	}
+
+	/**
+	 * Read the number of items that follow, checked against the bytes left
+	 * so a damaged file cannot make the reader allocate a huge or negative
+	 * array.
+	 * @param in The snapshot being read
+	 * @param minBytes The fewest bytes each item takes
+	 * @return The count, or -1 if the rest of the file cannot hold it.
+	 */
+	private static int readCount(ByteBuffer in, int minBytes)
+	{
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining() / minBytes) {
+			return -1;
+		}
+		return count;
+	}
+}
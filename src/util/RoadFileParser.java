@@ -0,0 +1,243 @@
+package util;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import geography.GeographicPoint;
+
+/**
+ * Parses road data files (lat1 lon1 lat2 lon2 "road name" roadType per line)
+ * straight from bytes.
+ *
+ * The file is read in one go and cut into chunks at line boundaries, and the
+ * chunks are tokenized in parallel with no regular expressions or per-line
+ * String objects. Tokens follow the same rules as the regular expression
+ * [^\s"']+|"([^"]*)" used before: runs of characters other than whitespace
+ * and quotes, or text between a pair of double quotes on the same line.
+ * Numbers are parsed directly from the digits when that is exact and fall
+ * back to Double.parseDouble otherwise, so the values are identical.
+ */
+class RoadFileParser
+{
+	// Chunks below this size are not worth handing to another thread
+	private static final int MIN_CHUNK_BYTES = 1 << 16;
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	// Largest mantissa a double holds exactly, 2^53
+	private static final long MAX_EXACT = 1L << 53;
+
+	private final String filename;
+	private final byte[] data;
+	private final Charset charset;
+
+	private RoadFileParser(String filename, byte[] data)
+	{
+		this.filename = filename;
+		this.data = data;
+		// FileReader decodes with the default charset, so names must too
+		this.charset = Charset.defaultCharset();
+	}
+
+	/**
+	 * Read all the lines of a road data file, in file order.
+	 * @param filename The road data file
+	 * @return One RoadLineInfo per non-blank line
+	 * @throws IOException If the file cannot be read
+	 * @throws IllegalArgumentException If a line has fewer than six tokens
+	 *   or a coordinate is not a number; the message names the line
+	 */
+	static List<RoadLineInfo> parse(String filename) throws IOException
+	{
+		byte[] data = Files.readAllBytes(Paths.get(filename));
+		RoadFileParser parser = new RoadFileParser(filename, data);
+
+		int chunks = Math.max(1, Math.min(
+				Runtime.getRuntime().availableProcessors() * 4,
+				data.length / MIN_CHUNK_BYTES));
+		int[] bounds = new int[chunks + 1];
+		for (int i = 1; i < chunks; i++) {
+			int pos = Math.max(bounds[i - 1], (int)((long)data.length * i / chunks));
+			while (pos < data.length && data[pos] != '\n') {
+				pos++;
+			}
+			bounds[i] = Math.min(data.length, pos + 1);
+		}
+		bounds[chunks] = data.length;
+
+		List<List<RoadLineInfo>> parts = IntStream.range(0, chunks)
+				.parallel()
+				.mapToObj(i -> parser.parseChunk(bounds[i], bounds[i + 1]))
+				.collect(Collectors.toList());
+
+		int total = 0;
+		for (List<RoadLineInfo> part : parts) {
+			total += part.size();
+		}
+		List<RoadLineInfo> lines = new ArrayList<RoadLineInfo>(total);
+		for (List<RoadLineInfo> part : parts) {
+			lines.addAll(part);
+		}
+		return lines;
+	}
+
+	// Parse the lines in data[from, to). Lines end at '\n' or '\r' as they
+	// do for BufferedReader.readLine.
+	private List<RoadLineInfo> parseChunk(int from, int to)
+	{
+		List<RoadLineInfo> lines = new ArrayList<RoadLineInfo>((to - from) / 80 + 1);
+		int[] starts = new int[6];
+		int[] ends = new int[6];
+
+		int pos = from;
+		while (pos < to) {
+			int lineEnd = pos;
+			while (lineEnd < to && data[lineEnd] != '\n' && data[lineEnd] != '\r') {
+				lineEnd++;
+			}
+
+			int count = tokenize(pos, lineEnd, starts, ends);
+			if (count > 0) {
+				try {
+					if (count < 6) {
+						throw new IllegalArgumentException("Expected 6 tokens but found "
+								+ count);
+					}
+					GeographicPoint p1 = new GeographicPoint(
+							parseDouble(starts[0], ends[0]), parseDouble(starts[1], ends[1]));
+					GeographicPoint p2 = new GeographicPoint(
+							parseDouble(starts[2], ends[2]), parseDouble(starts[3], ends[3]));
+					lines.add(new RoadLineInfo(p1, p2,
+							new String(data, starts[4], ends[4] - starts[4], charset),
+							new String(data, starts[5], ends[5] - starts[5], charset)));
+				}
+				catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Malformed line " + lineNumber(pos)
+							+ " of " + filename + ": "
+							+ new String(data, pos, lineEnd - pos, charset), e);
+				}
+			}
+			pos = lineEnd + 1;
+		}
+		return lines;
+	}
+
+	// The 1-based number of the line starting at data[pos], counting "\r\n"
+	// as one line end as BufferedReader.readLine does. Only used to report
+	// errors, so it rescans the file from the start.
+	private int lineNumber(int pos)
+	{
+		int line = 1;
+		for (int i = 0; i < pos; i++) {
+			if (data[i] == '\n' || (data[i] == '\r' && (i + 1 == data.length || data[i + 1] != '\n'))) {
+				line++;
+			}
+		}
+		return line;
+	}
+
+	// Find the first six tokens of the line data[from, to) and return how
+	// many tokens there were, counting at most seven.
+	private int tokenize(int from, int to, int[] starts, int[] ends)
+	{
+		int count = 0;
+		int i = from;
+		while (i < to && count <= starts.length) {
+			byte c = data[i];
+			if (isWhitespace(c) || c == '\'') {
+				i++;
+			}
+			else if (c == '"') {
+				int close = i + 1;
+				while (close < to && data[close] != '"') {
+					close++;
+				}
+				if (close == to) {
+					// an unmatched quote is skipped, like the regex does
+					i++;
+					continue;
+				}
+				if (count < starts.length) {
+					starts[count] = i + 1;
+					ends[count] = close;
+				}
+				count++;
+				i = close + 1;
+			}
+			else {
+				int start = i;
+				while (i < to && !isWhitespace(data[i]) && data[i] != '"' && data[i] != '\'') {
+					i++;
+				}
+				if (count < starts.length) {
+					starts[count] = start;
+					ends[count] = i;
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// The characters matched by \s in a Java regular expression
+	private static boolean isWhitespace(byte c)
+	{
+		return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+	}
+
+	// Parse a plain decimal number. When the digits fit in a double exactly
+	// and there are at most 22 decimal places, one correctly rounded
+	// division gives the same value as Double.parseDouble.
+	private double parseDouble(int from, int to)
+	{
+		int i = from;
+		boolean negative = false;
+		if (i < to && (data[i] == '-' || data[i] == '+')) {
+			negative = data[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int decimals = 0;
+		int digits = 0;
+		boolean point = false;
+		for (; i < to; i++) {
+			byte c = data[i];
+			if (c >= '0' && c <= '9') {
+				if (++digits > 18) {
+					return parseDoubleSlow(from, to);
+				}
+				mantissa = mantissa * 10 + (c - '0');
+				if (point) {
+					decimals++;
+				}
+			}
+			else if (c == '.' && !point) {
+				point = true;
+			}
+			else {
+				return parseDoubleSlow(from, to);
+			}
+		}
+
+		if (digits == 0 || mantissa >= MAX_EXACT || decimals >= POWERS_OF_TEN.length) {
+			return parseDoubleSlow(from, to);
+		}
+		double value = mantissa / POWERS_OF_TEN[decimals];
+		return negative ? -value : value;
+	}
+
+	private double parseDoubleSlow(int from, int to)
+	{
+		return Double.parseDouble(new String(data, from, to - from, charset));
+	}
+}